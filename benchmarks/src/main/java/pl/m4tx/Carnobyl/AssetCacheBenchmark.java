@@ -0,0 +1,78 @@
+/*
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ *  
+ *  (C) Copyright 2012 m4tx
+ *  http://www.m4tx.pl/
+ */
+
+package pl.m4tx.Carnobyl;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures loading of the whole image set from the {@link AssetCache}, to
+ * compare with generating it in {@link AssetsBenchmark}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class AssetCacheBenchmark {
+	protected File dir;
+	protected File file;
+	protected Assets assets;
+
+	@Setup
+	public void setUp() throws IOException {
+		dir = Files.createTempDirectory("carnobyl-cache").toFile();
+		AssetCache cache = new AssetCache(dir);
+		assets = cache.get(Scene.SEED, 1);
+		file = cache.getFile(Scene.SEED);
+	}
+
+	@TearDown
+	public void tearDown() {
+		file.delete();
+		dir.delete();
+	}
+
+	@Benchmark
+	public Assets load() throws IOException {
+		return AssetCache.load(file, Scene.SEED);
+	}
+
+	@Benchmark
+	public File store() throws IOException {
+		AssetCache.store(assets, file);
+		return file;
+	}
+}
@@ -0,0 +1,103 @@
+/*
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ *  
+ *  (C) Copyright 2012 m4tx
+ *  http://www.m4tx.pl/
+ */
+
+package pl.m4tx.Carnobyl;
+
+import java.awt.Graphics2D;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Draws the same random pedestrian sprites on a window-sized image, once
+ * from the separate images ({@link #images()}) and once from the
+ * {@link Atlas} ({@link #atlas()}).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class AtlasBenchmark {
+	/**
+	 * Number of the sprites drawn.
+	 */
+	@Param({ "100", "1000" })
+	public int sprites;
+
+	protected Assets assets;
+	protected Atlas atlas;
+	protected int[] x, y, variant;
+	protected BufferedImage target;
+	protected Graphics2D g;
+
+	@Setup
+	public void setUp() {
+		assets = Assets.generate(Scene.SEED, 1);
+		atlas = new Atlas(assets);
+		Random random = new Random(Scene.SEED);
+		x = new int[sprites];
+		y = new int[sprites];
+		variant = new int[sprites];
+		for (int i = 0; i < sprites; i++) {
+			x[i] = random.nextInt(Main.W);
+			y[i] = random.nextInt(Main.H);
+			variant[i] = random.nextInt(Simulation.VARIANTS);
+		}
+		target = Generator.getCmptblImg(Main.W, Main.H, Transparency.OPAQUE);
+		g = target.createGraphics();
+	}
+
+	@TearDown
+	public void tearDown() {
+		g.dispose();
+	}
+
+	@Benchmark
+	public BufferedImage images() {
+		for (int i = 0; i < sprites; i++) {
+			g.drawImage(assets.pedestrian[variant[i]], x[i], y[i], null);
+		}
+		return target;
+	}
+
+	@Benchmark
+	public BufferedImage atlas() {
+		int first = atlas.region(Main.IMG_PEDESTRIAN, 0);
+		for (int i = 0; i < sprites; i++) {
+			atlas.draw(g, first + variant[i], x[i], y[i]);
+		}
+		return target;
+	}
+}
@@ -0,0 +1,94 @@
+/*
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ *  
+ *  (C) Copyright 2012 m4tx
+ *  http://www.m4tx.pl/
+ */
+
+package pl.m4tx.Carnobyl;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures generating ({@link Car#createCar()}) and drawing of the car: from
+ * its shapes ({@link Car#drawCar(Graphics2D)}) and from the pre-rendered
+ * {@link CarSprites}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class CarBenchmark {
+	protected Car car;
+	protected CarSprites sprites;
+	protected BufferedImage target;
+	protected Graphics2D g;
+	protected double rotation;
+
+	@Setup
+	public void setUp() {
+		car = new Car(Scene.SEED);
+		sprites = new CarSprites(car, CarSprites.DEFAULT_HEADINGS);
+		target = new BufferedImage(160, 160, BufferedImage.TYPE_INT_ARGB);
+		g = target.createGraphics();
+		g.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
+				RenderingHints.VALUE_ANTIALIAS_ON);
+		g.setRenderingHint(RenderingHints.KEY_RENDERING,
+				RenderingHints.VALUE_RENDER_QUALITY);
+		g.translate(80, 80);
+	}
+
+	@TearDown
+	public void tearDown() {
+		g.dispose();
+	}
+
+	@Benchmark
+	public Car createCar() {
+		return new Car(Scene.SEED);
+	}
+
+	@Benchmark
+	public void drawCar() {
+		// Rotate a bit every time, just like the car does while turning
+		rotation += 0.01;
+		g.rotate(rotation);
+		car.drawCar(g);
+		g.rotate(-rotation);
+	}
+
+	@Benchmark
+	public void drawSprite() {
+		rotation += 0.01;
+		sprites.draw(g, 0, 0, rotation / Math.PI);
+	}
+}
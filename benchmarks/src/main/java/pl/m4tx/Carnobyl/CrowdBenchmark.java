@@ -0,0 +1,83 @@
+/*
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ *  
+ *  (C) Copyright 2012 m4tx
+ *  http://www.m4tx.pl/
+ */
+
+package pl.m4tx.Carnobyl;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the pedestrian movement of a single tick, and the whole tick, on
+ * a map of 100 blocks with the car in its middle. 0 threads means all the
+ * available processors.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class CrowdBenchmark {
+	@Param({ "10000", "100000", "300000" })
+	public int pedestrians;
+	@Param({ "1", "0" })
+	public int threads;
+
+	public Simulation sim;
+	public long tick = 0;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		sim = new Simulation(Scene.SEED, 100, pedestrians);
+		sim.carX = sim.carY = 8 * Main.ROAD + 100 + 100 * Main.ROAD * 2;
+		// Don't let the game end
+		sim.time = Double.MAX_VALUE;
+		sim.crowd.pool = new ForkJoinPool(threads == 0 ? Runtime.getRuntime()
+				.availableProcessors() : threads);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		sim.crowd.pool.shutdown();
+	}
+
+	@Benchmark
+	public void move() {
+		sim.crowd.move(sim.pedestrians, sim.grid, tick++, sim.carX, sim.carY);
+	}
+
+	@Benchmark
+	public void tick() {
+		sim.tick(0);
+	}
+}
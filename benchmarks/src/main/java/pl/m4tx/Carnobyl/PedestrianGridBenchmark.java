@@ -0,0 +1,106 @@
+/*
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ *  
+ *  (C) Copyright 2012 m4tx
+ *  http://www.m4tx.pl/
+ */
+
+package pl.m4tx.Carnobyl;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the {@link PedestrianGrid} with large crowds: building the index,
+ * and the viewport and car queries compared to the linear scan of all the
+ * pedestrians.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class PedestrianGridBenchmark {
+	@Param({ "10", "50" })
+	public int size;
+	@Param({ "100000", "1000000" })
+	public int pedestrians;
+
+	protected Simulation sim;
+	protected int[] found;
+	protected int x0, y0, x1, y1;
+
+	@Setup
+	public void setUp() {
+		sim = new Simulation(Scene.SEED, size, pedestrians);
+		sim.carX = sim.carY = 8 * Main.ROAD + 100 + size * Main.ROAD * 2;
+		found = new int[pedestrians];
+
+		int camX = Renderer.getCamX(sim), camY = Renderer.getCamY(sim);
+		x0 = -camX - 64;
+		y0 = -camY - 64;
+		x1 = -camX + Main.W + 32;
+		y1 = -camY + Main.H + 32;
+	}
+
+	@Benchmark
+	public int build() {
+		sim.grid.build(sim.pedestrians);
+		return sim.grid.items[0];
+	}
+
+	@Benchmark
+	public int viewportQuery() {
+		Pedestrians peds = sim.pedestrians;
+		int count = sim.grid.query(x0, y0, x1, y1, found), visible = 0;
+		for (int k = 0; k < count; k++) {
+			int x = peds.x[found[k]], y = peds.y[found[k]];
+			if (x > x0 && x < x1 && y > y0 && y < y1) {
+				visible++;
+			}
+		}
+		return visible;
+	}
+
+	@Benchmark
+	public int viewportLinearScan() {
+		Pedestrians peds = sim.pedestrians;
+		int visible = 0;
+		for (int i = 0; i < peds.size(); i++) {
+			int x = peds.x[i], y = peds.y[i];
+			if (x > x0 && x < x1 && y > y0 && y < y1) {
+				visible++;
+			}
+		}
+		return visible;
+	}
+
+	@Benchmark
+	public void carQuery() {
+		sim.checkPedestrianCollisions();
+	}
+}
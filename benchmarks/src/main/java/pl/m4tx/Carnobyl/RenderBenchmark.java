@@ -0,0 +1,71 @@
+/*
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ *  
+ *  (C) Copyright 2012 m4tx
+ *  http://www.m4tx.pl/
+ */
+
+package pl.m4tx.Carnobyl;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the rendering passes of a single frame, drawn on an offscreen
+ * image, and the capture of the snapshot they draw.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class RenderBenchmark {
+	@Benchmark
+	public Snapshot capture(Scene s) {
+		s.snapshot.capture(s.sim);
+		return s.snapshot;
+	}
+
+	@Benchmark
+	public void mapPass(Scene s) {
+		s.g.translate(s.camX, s.camY);
+		s.renderer.drawMap(s.g, s.snapshot, s.camX, s.camY);
+		s.g.translate(-s.camX, -s.camY);
+	}
+
+	@Benchmark
+	public void pedestrianPass(Scene s) {
+		s.g.translate(s.camX, s.camY);
+		s.renderer.drawPedestrians(s.g, s.snapshot, s.camX, s.camY);
+		s.g.translate(-s.camX, -s.camY);
+	}
+
+	@Benchmark
+	public void hudPass(Scene s) {
+		s.renderer.drawHud(s.g, s.snapshot);
+	}
+
+	@Benchmark
+	public void frame(Scene s) {
+		s.renderer.render(s.g, s.sim);
+	}
+}
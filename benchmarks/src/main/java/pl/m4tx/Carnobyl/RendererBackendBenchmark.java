@@ -0,0 +1,101 @@
+/*
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ *  
+ *  (C) Copyright 2012 m4tx
+ *  http://www.m4tx.pl/
+ */
+
+package pl.m4tx.Carnobyl;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the Java2D {@link Renderer} with the {@link SoftwareRenderer}:
+ * a whole frame drawn on an offscreen image, with the car standing in the
+ * middle of the pedestrians of a 10 blocks map, and with the car moving
+ * back and forth, so the map is drawn at a different position every time.
+ * Every quality tier of the {@link QualityGovernor} is measured too.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class RendererBackendBenchmark {
+	@Param({ "java2d", "software" })
+	public String backend;
+	@Param({ "1000", "100000" })
+	public int pedestrians;
+	@Param({ "ultra", "high", "medium", "low", "lowest" })
+	public String quality;
+
+	public Snapshot snapshot;
+	public Renderer renderer;
+	public BufferedImage target;
+	public Graphics2D g;
+	public double carX;
+	public int frame = 0;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		Simulation sim = new Simulation(Scene.SEED, 10, pedestrians);
+		sim.carX = sim.carY = 8 * Main.ROAD + 100 + 10 * Main.ROAD * 2;
+		sim.prevCarX = sim.prevCarY = sim.carX;
+		snapshot = new Snapshot();
+		snapshot.capture(sim);
+		carX = sim.carX;
+
+		Assets assets = Assets.generate(Scene.SEED, 1);
+		renderer = (backend.equals("software") ? new SoftwareRenderer(assets)
+				: new Renderer(assets));
+		new QualityGovernor(new Options(new String[] { "--quality", quality }))
+				.apply(renderer);
+		target = new BufferedImage(Main.W, Main.H, BufferedImage.TYPE_INT_RGB);
+		g = target.createGraphics();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		g.dispose();
+	}
+
+	@Benchmark
+	public void frame() {
+		renderer.render(g, snapshot, 1);
+	}
+
+	@Benchmark
+	public void movingFrame() {
+		snapshot.carX = snapshot.prevCarX = carX + frame++ % 512;
+		renderer.render(g, snapshot, 1);
+	}
+}
@@ -0,0 +1,84 @@
+/*
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ *  
+ *  (C) Copyright 2012 m4tx
+ *  http://www.m4tx.pl/
+ */
+
+package pl.m4tx.Carnobyl;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Game scene shared by the benchmarks: a simulation with the car placed in
+ * the middle of the pedestrians, its snapshot, a renderer and an offscreen
+ * {@link BufferedImage} of the window size to draw on.
+ */
+@State(Scope.Thread)
+public class Scene {
+	/**
+	 * Seed of the scene. It gives a pink car, as in the Readme.
+	 */
+	public final static long SEED = 16711935;
+
+	/**
+	 * Size of the map, in blocks.
+	 */
+	@Param({ "1", "3", "10" })
+	public int size;
+	/**
+	 * Number of the pedestrians.
+	 */
+	@Param({ "60", "1000", "10000", "100000" })
+	public int pedestrians;
+
+	public Simulation sim;
+	public Snapshot snapshot;
+	public Renderer renderer;
+	public BufferedImage target;
+	public Graphics2D g;
+	public int camX, camY;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		sim = new Simulation(SEED, size, pedestrians);
+		// Place the car in the middle of the area with the pedestrians
+		sim.carX = sim.carY = 8 * Main.ROAD + 100 + size * Main.ROAD * 2;
+		sim.prevCarX = sim.prevCarY = sim.carX;
+		snapshot = new Snapshot();
+		snapshot.capture(sim);
+
+		renderer = new Renderer(Assets.generate(SEED, 1));
+		target = new BufferedImage(Main.W, Main.H, BufferedImage.TYPE_INT_RGB);
+		g = target.createGraphics();
+		g.setRenderingHints(renderer.rh);
+
+		camX = Renderer.getCamX(sim);
+		camY = Renderer.getCamY(sim);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		g.dispose();
+	}
+}
@@ -0,0 +1,148 @@
+/*
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ *  
+ *  (C) Copyright 2012 m4tx
+ *  http://www.m4tx.pl/
+ */
+
+package pl.m4tx.Carnobyl;
+
+import java.awt.Color;
+import java.awt.Image;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the per-pixel texture generators: {@link #raster()} is the
+ * current {@link Generator#getImage(int)}, writing packed pixels through
+ * {@link Texture}, and {@link #legacy()} is the previous implementation,
+ * calling <code>setRGB</code> with a new {@link Color} for every pixel.
+ * Both give identical pixels.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class TextureBenchmark {
+	/**
+	 * ID of the image: grass, asphalt, level end, building or checkered.
+	 */
+	@Param({ "101", "151", "158", "159", "1" })
+	public int image;
+
+	protected Generator generator;
+	protected Random random;
+
+	@Setup
+	public void setUp() {
+		generator = new Generator(Scene.SEED);
+		random = new Random(Scene.SEED);
+	}
+
+	@Benchmark
+	public Image raster() {
+		return generator.getImage(image);
+	}
+
+	@Benchmark
+	public Image legacy() {
+		BufferedImage img;
+		switch (image) {
+		case Main.IMG_GRASS:
+			img = Generator.getCmptblImg(Main.TILE, Main.TILE,
+					Transparency.OPAQUE);
+			for (int x = 0; x < Main.TILE; x++) {
+				for (int y = 0; y < Main.TILE; y++) {
+					img.setRGB(x, y, rndPxl(255, 0, 0, 25, 230, 25, 0, 25)
+							.getRGB());
+				}
+			}
+			return img;
+		case Main.IMG_ASPHALT:
+			img = Generator.getCmptblImg(Main.ROAD, Main.ROAD,
+					Transparency.OPAQUE);
+			for (int x = 0; x < Main.ROAD; x++) {
+				for (int y = 0; y < Main.ROAD; y++) {
+					img.setRGB(x, y, (random.nextInt(4) < 3 ? rndPxl(255, 0,
+							0, 40, 0, 40, 0, 40).getRGB() : rndPxl(255, 0, 80,
+							20, 80, 20, 80, 20).getRGB()));
+				}
+			}
+			return img;
+		case Main.IMG_LEVEL_END: {
+			img = Generator.getCmptblImg(Main.ROAD, Main.ROAD,
+					Transparency.OPAQUE);
+			int p1 = rndPxl(255, 0, 200, 20, 0, 10, 0, 10).getRGB();
+			int p2 = rndPxl(255, 0, 245, 10, 245, 10, 245, 10).getRGB();
+			for (int x = 0; x < Main.ROAD; x++) {
+				for (int y = 0; y < Main.ROAD; y++) {
+					img.setRGB(x, y, ((x + y) % 16 < 10 ? p1 : p2));
+				}
+			}
+			return img;
+		}
+		case Main.IMG_BUILDING:
+			img = Generator.getCmptblImg(Main.ROAD, Main.ROAD,
+					Transparency.OPAQUE);
+			for (int x = 0; x < Main.ROAD; x++) {
+				for (int y = 0; y < Main.ROAD; y++) {
+					img.setRGB(x, y, rndPxl(255, 0, 200, 20, 200, 20, 200, 20)
+							.getRGB());
+				}
+			}
+			return img;
+		default: {
+			img = Generator.getCmptblImg(Main.W, Main.H, Transparency.OPAQUE);
+			int p1 = rndPxl(255, 0, 170, 50, 0, 50, 0, 50).getRGB();
+			int p2 = rndPxl(255, 0, 205, 50, 205, 50, 205, 50).getRGB();
+			for (int x = 0; x < Main.W; x++) {
+				for (int y = 0; y < Main.H; y++) {
+					img.setRGB(x, y,
+							((((y % 20) > 10 ? x + 10 : x) % 20) < 10 ? p1 : p2));
+				}
+			}
+			return img;
+		}
+		}
+	}
+
+	/**
+	 * The previous, allocating version of
+	 * {@link Generator#rndPxl(int, int, int, int, int, int, int, int)}.
+	 */
+	protected Color rndPxl(int A1, int A2, int R1, int R2, int G1, int G2,
+			int B1, int B2) {
+		return new Color((R2 == R1 ? 0 : R1 + random.nextInt(R2)),
+				(G2 == 0 ? G1 : G1 + random.nextInt(G2)), (B2 == 0 ? B1 : B1
+						+ random.nextInt(B2)), (A2 == 0 ? A1 : A1
+						+ random.nextInt(A2)));
+	}
+}
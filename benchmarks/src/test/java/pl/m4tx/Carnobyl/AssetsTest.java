@@ -0,0 +1,64 @@
+/*
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ *  
+ *  (C) Copyright 2012 m4tx
+ *  http://www.m4tx.pl/
+ */
+
+package pl.m4tx.Carnobyl;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks that the {@link Assets} don't depend on the number of threads
+ * generating them: the images generated by a single thread must be
+ * pixel-identical to the ones generated in parallel.
+ */
+public class AssetsTest {
+	/**
+	 * Number of the threads of the parallel generation. It's at least 4, so
+	 * the images are generated concurrently even on a single processor.
+	 */
+	protected final static int THREADS = Math.max(4, Runtime.getRuntime()
+			.availableProcessors());
+
+	/**
+	 * Generates the images of a seed by 1 and by {@link #THREADS} threads, and
+	 * compares them.
+	 *
+	 * @param seed
+	 *            seed of the images
+	 */
+	protected void checkSeed(long seed) {
+		Assets serial = Assets.generate(seed, 1);
+		Assets parallel = Assets.generate(seed, THREADS);
+		assertTrue(serial.pixelsEqual(parallel), "Images for seed " + seed
+				+ " generated by 1 and " + THREADS + " threads differ");
+	}
+
+	@Test
+	public void serialAndParallelAreIdentical() {
+		checkSeed(Scene.SEED);
+	}
+
+	@Test
+	public void serialAndParallelAreIdenticalForOtherSeeds() {
+		checkSeed(0);
+		checkSeed(-1);
+		checkSeed(123456789);
+	}
+}
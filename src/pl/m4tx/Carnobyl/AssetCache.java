@@ -0,0 +1,299 @@
+/*
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ *  
+ *  (C) Copyright 2012 m4tx
+ *  http://www.m4tx.pl/
+ */
+
+package pl.m4tx.Carnobyl;
+
+import java.awt.Image;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * On-disk cache of the generated {@link Assets}.
+ * <p>
+ * Every set is stored in its own file, named after the seed and the
+ * {@link Generator#VERSION}, as raw ARGB pixels, so it can be loaded by
+ * memory-mapping the file and copying the pixels straight into the images.
+ * The images are drawn by Java2D, which may draw them a bit differently in
+ * another version of Java, so the file is valid only for the Java version
+ * ({@link #JAVA}) it was written by.
+ * <p>
+ * The file format (big-endian):
+ * <ul>
+ * <li>header: magic number, {@link #FORMAT}, {@link Generator#VERSION},
+ * {@link #JAVA}, seed, number of images,</li>
+ * <li>for every image: its ID, width, height and transparency,</li>
+ * <li>pixels of all the images, one after another, row by row,</li>
+ * <li>CRC32 of all the above.</li>
+ * </ul>
+ * A file is written to a temporary file first and then atomically moved in
+ * place, so the game never sees a half-written one. A file that doesn't
+ * match the expected header, image list or checksum is ignored, and then
+ * replaced by the newly generated images.
+ */
+public class AssetCache {
+	/**
+	 * Magic number at the beginning of every file ("C64A").
+	 */
+	protected final static int MAGIC = 0x43363441;
+	/**
+	 * Version of the file format.
+	 */
+	protected final static int FORMAT = 2;
+	/**
+	 * Hash of the Java version the images are generated by.
+	 */
+	protected final static int JAVA = System.getProperty("java.version")
+			.hashCode();
+
+	/**
+	 * Directory of the cache files.
+	 */
+	protected final File dir;
+
+	/**
+	 * Creates a cache stored in the given directory. The directory is created
+	 * when the first file is written.
+	 *
+	 * @param dir
+	 *            directory of the cache files
+	 */
+	public AssetCache(File dir) {
+		this.dir = dir;
+	}
+
+	/**
+	 * Returns the default directory of the cache,
+	 * <code>.carnobyl64k/cache</code> in the user's home directory.
+	 *
+	 * @return The directory.
+	 */
+	public static File getDefaultDir() {
+		return new File(new File(System.getProperty("user.home"),
+				".carnobyl64k"), "cache");
+	}
+
+	/**
+	 * Returns the file storing the images of given seed.
+	 *
+	 * @param seed
+	 *            seed of the game
+	 * @return The file.
+	 */
+	protected File getFile(long seed) {
+		return new File(dir, "assets-" + seed + "-v" + Generator.VERSION
+				+ ".bin");
+	}
+
+	/**
+	 * Loads the images of given seed from the cache, or generates them and
+	 * stores them in the cache if they aren't there yet. Problems with the
+	 * cache are only logged - the images are then just generated.
+	 *
+	 * @param seed
+	 *            seed of the game
+	 * @param parallelism
+	 *            number of threads used to generate the images
+	 * @return The images.
+	 */
+	public Assets get(long seed, int parallelism) {
+		File file = getFile(seed);
+		if (file.isFile()) {
+			try {
+				Assets assets = load(file, seed);
+				if (assets != null) {
+					return assets;
+				}
+				getLogger().log(Level.WARNING,
+						"Invalid asset cache file, regenerating: " + file);
+			} catch (IOException e) {
+				getLogger().log(Level.WARNING,
+						"Cannot read asset cache file: " + file, e);
+			}
+		}
+
+		Assets assets = Assets.generate(seed, parallelism);
+		try {
+			store(assets, file);
+		} catch (IOException e) {
+			getLogger().log(Level.WARNING,
+					"Cannot write asset cache file: " + file, e);
+		}
+		return assets;
+	}
+
+	/**
+	 * Loads the images from a file.
+	 *
+	 * @param file
+	 *            the file
+	 * @param seed
+	 *            seed of the game
+	 * @return The images, or <code>null</code> if the file isn't valid.
+	 * @throws IOException
+	 *             if the file cannot be read
+	 */
+	protected static Assets load(File file, long seed) throws IOException {
+		FileChannel ch = FileChannel.open(file.toPath(),
+				StandardOpenOption.READ);
+		try {
+			long size = ch.size();
+			int[] ids = Assets.getIds();
+			long headerSize = 28 + ids.length * 16L;
+			if (size < headerSize + 8) {
+				return null;
+			}
+			MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, 0,
+					size);
+			if (buf.getInt() != MAGIC || buf.getInt() != FORMAT
+					|| buf.getInt() != Generator.VERSION
+					|| buf.getInt() != JAVA || buf.getLong() != seed || buf.getInt() != ids.length) {
+				return null;
+			}
+
+			int[] w = new int[ids.length], h = new int[ids.length];
+			int[] transparency = new int[ids.length];
+			long pixels = 0;
+			for (int i = 0; i < ids.length; i++) {
+				if (buf.getInt() != ids[i]) {
+					return null;
+				}
+				w[i] = buf.getInt();
+				h[i] = buf.getInt();
+				transparency[i] = buf.getInt();
+				if (w[i] <= 0 || h[i] <= 0) {
+					return null;
+				}
+				pixels += (long) w[i] * h[i];
+			}
+			if (size != headerSize + pixels * 4 + 8) {
+				return null;
+			}
+
+			CRC32 crc = new CRC32();
+			ByteBuffer data = buf.duplicate();
+			data.position(0).limit((int) (size - 8));
+			crc.update(data);
+			buf.position((int) (size - 8));
+			if (buf.getLong() != crc.getValue()) {
+				return null;
+			}
+
+			buf.position((int) headerSize);
+			IntBuffer src = buf.asIntBuffer();
+			Image[] images = new Image[ids.length];
+			for (int i = 0; i < ids.length; i++) {
+				int[] px = new int[w[i] * h[i]];
+				src.get(px);
+				BufferedImage img = Generator.getCmptblImg(w[i], h[i],
+						transparency[i]);
+				Texture.write(img, px);
+				images[i] = img;
+			}
+			return new Assets(seed, images);
+		} finally {
+			ch.close();
+		}
+	}
+
+	/**
+	 * Stores the images in a file, replacing it atomically.
+	 *
+	 * @param assets
+	 *            the images
+	 * @param file
+	 *            the file
+	 * @throws IOException
+	 *             if the file cannot be written
+	 */
+	protected static void store(Assets assets, File file) throws IOException {
+		int n = assets.images.length;
+		long size = 28 + n * 16L + 8;
+		for (Image image : assets.images) {
+			BufferedImage img = (BufferedImage) image;
+			size += (long) img.getWidth() * img.getHeight() * 4;
+		}
+
+		ByteBuffer buf = ByteBuffer.allocate((int) size);
+		buf.putInt(MAGIC).putInt(FORMAT).putInt(Generator.VERSION)
+				.putInt(JAVA).putLong(assets.seed).putInt(n);
+		for (int i = 0; i < n; i++) {
+			BufferedImage img = (BufferedImage) assets.images[i];
+			buf.putInt(assets.ids[i]).putInt(img.getWidth())
+					.putInt(img.getHeight()).putInt(img.getTransparency());
+		}
+		IntBuffer dst = buf.asIntBuffer();
+		for (int i = 0; i < n; i++) {
+			BufferedImage img = (BufferedImage) assets.images[i];
+			int w = img.getWidth(), h = img.getHeight();
+			dst.put(img.getRGB(0, 0, w, h, null, 0, w));
+		}
+		buf.position((int) (size - 8));
+		CRC32 crc = new CRC32();
+		crc.update(buf.array(), 0, (int) (size - 8));
+		buf.putLong(crc.getValue());
+		buf.flip();
+
+		Path dirPath = file.getAbsoluteFile().getParentFile().toPath();
+		Files.createDirectories(dirPath);
+		Path tmp = Files.createTempFile(dirPath, file.getName(), ".tmp");
+		try {
+			FileChannel ch = FileChannel.open(tmp, StandardOpenOption.WRITE);
+			try {
+				while (buf.hasRemaining()) {
+					ch.write(buf);
+				}
+				ch.force(true);
+			} finally {
+				ch.close();
+			}
+			try {
+				Files.move(tmp, file.toPath(),
+						StandardCopyOption.ATOMIC_MOVE,
+						StandardCopyOption.REPLACE_EXISTING);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(tmp, file.toPath(),
+						StandardCopyOption.REPLACE_EXISTING);
+			}
+		} finally {
+			Files.deleteIfExists(tmp);
+		}
+	}
+
+	/**
+	 * Returns the logger of the cache.
+	 *
+	 * @return The logger.
+	 */
+	protected static Logger getLogger() {
+		return Logger.getLogger(AssetCache.class.getName());
+	}
+}
@@ -0,0 +1,278 @@
+/*
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ *  
+ *  (C) Copyright 2012 m4tx
+ *  http://www.m4tx.pl/
+ */
+
+package pl.m4tx.Carnobyl;
+
+import java.awt.Image;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Set of all the generated images used by the game.
+ * <p>
+ * Every image gets its own seed, derived from the game seed by splitting a
+ * {@link SplittableRandom} in a fixed order, and is generated by its own
+ * {@link Generator}. Thanks to that, the images don't depend on the order of
+ * generation, so they can be generated in parallel and still have identical
+ * pixels for given seed, no matter how many threads are used.
+ */
+public class Assets {
+	/**
+	 * Seed of the game.
+	 */
+	protected final long seed;
+
+	/**
+	 * IDs of all the images, in the order of {@link #images}.
+	 */
+	protected final int[] ids;
+	/**
+	 * All the images.
+	 */
+	protected final Image[] images;
+
+	protected Image grassImg, checkedImg;
+	protected Image[] pedestrian, killedPedestrian, blood, road;
+
+	/**
+	 * Creates the set from the generated images.
+	 *
+	 * @param seed
+	 *            seed of the game
+	 * @param images
+	 *            all the images, in the order of {@link #getIds()}
+	 */
+	protected Assets(long seed, Image[] images) {
+		this.seed = seed;
+		this.ids = getIds();
+		this.images = images;
+
+		int n = 0;
+		grassImg = images[n++];
+		checkedImg = images[n++];
+		pedestrian = new Image[Simulation.VARIANTS];
+		killedPedestrian = new Image[Simulation.VARIANTS];
+		blood = new Image[Simulation.VARIANTS];
+		for (int i = 0; i < Simulation.VARIANTS; i++) {
+			pedestrian[i] = images[n++];
+			killedPedestrian[i] = images[n++];
+			blood[i] = images[n++];
+		}
+		road = new Image[Main.IMG_BUILDING - 150];
+		for (int i = 0; i < road.length; i++) {
+			road[i] = images[n++];
+		}
+	}
+
+	/**
+	 * Returns IDs of all the images in the set, in a fixed order.
+	 *
+	 * @return IDs of the images, <code>Main.IMG_*</code> constants.
+	 */
+	protected static int[] getIds() {
+		int[] ids = new int[2 + Simulation.VARIANTS * 3 + Main.IMG_BUILDING
+				- 150];
+		int n = 0;
+		ids[n++] = Main.IMG_GRASS;
+		ids[n++] = Main.IMG_CHECKERED;
+		for (int i = 0; i < Simulation.VARIANTS; i++) {
+			ids[n++] = Main.IMG_PEDESTRIAN;
+			ids[n++] = Main.IMG_KILLED_PEDESTRIAN;
+			ids[n++] = Main.IMG_BLOOD;
+		}
+		for (int i = 151; i <= Main.IMG_BUILDING; i++) {
+			ids[n++] = i;
+		}
+		return ids;
+	}
+
+	/**
+	 * Generates the set.
+	 * <p>
+	 * Images derived from other images (see
+	 * {@link Generator#getDependencies(int)}) are generated from the images
+	 * already in the set, so every image is generated only once. The images
+	 * are generated in waves: every wave contains the images whose
+	 * dependencies were generated by the previous waves, and the images of a
+	 * wave are generated in parallel.
+	 *
+	 * @param seed
+	 *            seed of the game
+	 * @param parallelism
+	 *            number of threads used to generate the images
+	 * @return The generated set.
+	 */
+	public static Assets generate(long seed, int parallelism) {
+		final int[] ids = getIds();
+		final long[] seeds = new long[ids.length];
+		SplittableRandom random = new SplittableRandom(seed);
+		for (int i = 0; i < ids.length; i++) {
+			seeds[i] = random.split().nextLong();
+		}
+
+		final Image[] images = new Image[ids.length];
+		ForkJoinPool pool = (parallelism <= 1 ? null : new ForkJoinPool(
+				parallelism));
+		try {
+			int done = 0;
+			while (done < ids.length) {
+				List<Callable<Image>> tasks = new ArrayList<Callable<Image>>();
+				final List<Integer> wave = new ArrayList<Integer>();
+				for (int i = 0; i < ids.length; i++) {
+					if (images[i] == null && isReady(ids[i], ids, images)) {
+						final int n = i;
+						wave.add(n);
+						tasks.add(new Callable<Image>() {
+							@Override
+							public Image call() {
+								return new Generator(seeds[n]).getImage(ids[n],
+										getInputs(ids[n], ids, images));
+							}
+						});
+					}
+				}
+				if (wave.isEmpty()) {
+					throw new IllegalStateException("Cyclic image dependencies");
+				}
+
+				if (pool == null) {
+					for (int k = 0; k < wave.size(); k++) {
+						images[wave.get(k)] = tasks.get(k).call();
+					}
+				} else {
+					List<Future<Image>> results = pool.invokeAll(tasks);
+					for (int k = 0; k < wave.size(); k++) {
+						images[wave.get(k)] = results.get(k).get();
+					}
+				}
+				done += wave.size();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException(e);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException(e.getCause());
+		} catch (Exception e) {
+			throw new IllegalStateException(e);
+		} finally {
+			if (pool != null) {
+				pool.shutdown();
+			}
+		}
+		return new Assets(seed, images);
+	}
+
+	/**
+	 * Checks if all the dependencies of the image are already generated.
+	 *
+	 * @param image
+	 *            ID of the image
+	 * @param ids
+	 *            IDs of all the images
+	 * @param images
+	 *            all the images, <code>null</code> if not generated yet
+	 * @return <code>true</code> if the image can be generated.
+	 */
+	protected static boolean isReady(int image, int[] ids, Image[] images) {
+		for (int dependency : Generator.getDependencies(image)) {
+			int i = indexOf(dependency, ids);
+			if (i < 0) {
+				throw new IllegalStateException("Image " + image
+						+ " depends on " + dependency + ", which isn't in the set");
+			}
+			if (images[i] == null) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the generated dependencies of the image.
+	 *
+	 * @param image
+	 *            ID of the image
+	 * @param ids
+	 *            IDs of all the images
+	 * @param images
+	 *            all the images
+	 * @return The dependencies, in the order of
+	 *         {@link Generator#getDependencies(int)}.
+	 */
+	protected static Image[] getInputs(int image, int[] ids, Image[] images) {
+		int[] dependencies = Generator.getDependencies(image);
+		Image[] inputs = new Image[dependencies.length];
+		for (int i = 0; i < dependencies.length; i++) {
+			inputs[i] = images[indexOf(dependencies[i], ids)];
+		}
+		return inputs;
+	}
+
+	/**
+	 * Returns the position of the first image with given ID.
+	 *
+	 * @param image
+	 *            ID of the image
+	 * @param ids
+	 *            IDs of all the images
+	 * @return The position, or -1 if there's no such image.
+	 */
+	protected static int indexOf(int image, int[] ids) {
+		for (int i = 0; i < ids.length; i++) {
+			if (ids[i] == image) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Checks if the images of both sets have identical pixels.
+	 *
+	 * @param other
+	 *            the other set
+	 * @return <code>true</code> if all the images are identical.
+	 */
+	public boolean pixelsEqual(Assets other) {
+		if (images.length != other.images.length) {
+			return false;
+		}
+		for (int i = 0; i < images.length; i++) {
+			BufferedImage a = (BufferedImage) images[i];
+			BufferedImage b = (BufferedImage) other.images[i];
+			if (a.getWidth() != b.getWidth() || a.getHeight() != b.getHeight()) {
+				return false;
+			}
+			int w = a.getWidth(), h = a.getHeight();
+			int[] pa = a.getRGB(0, 0, w, h, null, 0, w);
+			int[] pb = b.getRGB(0, 0, w, h, null, 0, w);
+			if (!Arrays.equals(pa, pb)) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,277 @@
+/*
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ *  
+ *  (C) Copyright 2012 m4tx
+ *  http://www.m4tx.pl/
+ */
+
+package pl.m4tx.Carnobyl;
+
+import java.awt.AlphaComposite;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.Image;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.Comparator;
+
+import javax.imageio.ImageIO;
+
+/**
+ * All the sprites drawn on the map (road tiles, pedestrians, killed
+ * pedestrians and blood) packed into a single image.
+ * <p>
+ * Drawing many sprites from one image is cheaper than drawing them from many
+ * small ones: the source image doesn't change between the draw calls, and
+ * only one image has to be kept accelerated.
+ * <p>
+ * Every sprite is a region of the atlas. Regions of the variants of the same
+ * image are consecutive, so the region of a variant is found by
+ * {@link #region(int, int)} in a constant time. The regions are placed on
+ * shelves, the highest sprites first, separated by {@link #PADDING} pixels
+ * so the filtering of one sprite never reads the neighbouring ones.
+ */
+public class Atlas {
+	/**
+	 * Width of the atlas image, in pixels.
+	 */
+	protected final static int WIDTH = 1024;
+	/**
+	 * Free space around every sprite, in pixels.
+	 */
+	protected final static int PADDING = 2;
+
+	/**
+	 * The atlas image.
+	 */
+	protected final BufferedImage image;
+
+	/**
+	 * Pixels of the {@link #image}, read when a sprite is drawn into a
+	 * {@link Framebuffer} for the first time.
+	 */
+	protected int[] pixels;
+	/**
+	 * Bounds of the visible (not fully transparent) pixels of every region,
+	 * relative to the region, found together with the {@link #pixels}. Only
+	 * these pixels are drawn into a {@link Framebuffer}.
+	 */
+	protected int[] trimX, trimY, trimW, trimH;
+
+	/**
+	 * Image ID and variant of every region.
+	 */
+	protected final int[] id, variant;
+	/**
+	 * Position and size of every region in the {@link #image}.
+	 */
+	protected final int[] x, y, w, h;
+	/**
+	 * First region of every image ID, or -1 if the atlas doesn't have the
+	 * image.
+	 */
+	protected final int[] first = new int[256];
+
+	/**
+	 * Packs the sprites of the set.
+	 *
+	 * @param assets
+	 *            the images
+	 */
+	public Atlas(Assets assets) {
+		// Sprites, grouped by ID (the variants keep their order)
+		int[] order = new int[assets.ids.length];
+		int n = 0;
+		for (int spriteId = 0; spriteId < first.length; spriteId++) {
+			for (int i = 0; i < assets.ids.length; i++) {
+				if (assets.ids[i] == spriteId && isSprite(spriteId)) {
+					order[n++] = i;
+				}
+			}
+		}
+		id = new int[n];
+		variant = new int[n];
+		x = new int[n];
+		y = new int[n];
+		w = new int[n];
+		h = new int[n];
+		Arrays.fill(first, -1);
+
+		for (int r = 0; r < n; r++) {
+			Image img = assets.images[order[r]];
+			id[r] = assets.ids[order[r]];
+			variant[r] = (r > 0 && id[r - 1] == id[r] ? variant[r - 1] + 1 : 0);
+			if (variant[r] == 0) {
+				first[id[r]] = r;
+			}
+			w[r] = img.getWidth(null);
+			h[r] = img.getHeight(null);
+		}
+
+		// Shelf packing, the highest sprites first
+		Integer[] byHeight = new Integer[n];
+		for (int r = 0; r < n; r++) {
+			byHeight[r] = r;
+		}
+		Arrays.sort(byHeight, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				return h[b] - h[a];
+			}
+		});
+		int shelfX = 0, shelfY = 0, shelfH = 0;
+		for (int r : byHeight) {
+			if (shelfX + w[r] + PADDING * 2 > WIDTH) {
+				shelfX = 0;
+				shelfY += shelfH;
+				shelfH = 0;
+			}
+			x[r] = shelfX + PADDING;
+			y[r] = shelfY + PADDING;
+			shelfX += w[r] + PADDING * 2;
+			shelfH = Math.max(shelfH, h[r] + PADDING * 2);
+		}
+
+		image = Generator.getCmptblImg(WIDTH, Math.max(shelfY + shelfH, 1),
+				Transparency.TRANSLUCENT);
+		Graphics2D g = image.createGraphics();
+		g.setComposite(AlphaComposite.Src);
+		for (int r = 0; r < n; r++) {
+			g.drawImage(assets.images[order[r]], x[r], y[r], null);
+		}
+		g.dispose();
+	}
+
+	/**
+	 * Checks if the image is packed into the atlas. The grass and the
+	 * checkered background aren't, as they're drawn only into other images.
+	 *
+	 * @param image
+	 *            ID of the image
+	 * @return <code>true</code> if the image is a sprite.
+	 */
+	protected static boolean isSprite(int image) {
+		return image != Main.IMG_GRASS && image != Main.IMG_CHECKERED;
+	}
+
+	/**
+	 * Returns the region of the sprite.
+	 *
+	 * @param image
+	 *            ID of the image
+	 * @param variant
+	 *            variant of the image
+	 * @return Index of the region.
+	 */
+	public int region(int image, int variant) {
+		return first[image] + variant;
+	}
+
+	/**
+	 * Draws the sprite.
+	 *
+	 * @param g
+	 *            a {@link Graphics} object.
+	 * @param r
+	 *            index of the region, see {@link #region(int, int)}
+	 * @param dx
+	 *            position of the left edge of the sprite
+	 * @param dy
+	 *            position of the top edge of the sprite
+	 */
+	public void draw(Graphics g, int r, int dx, int dy) {
+		g.drawImage(image, dx, dy, dx + w[r], dy + h[r], x[r], y[r], x[r]
+				+ w[r], y[r] + h[r], null);
+	}
+
+	/**
+	 * Draws the sprite into a framebuffer.
+	 *
+	 * @param fb
+	 *            the framebuffer
+	 * @param r
+	 *            index of the region, see {@link #region(int, int)}
+	 * @param dx
+	 *            position of the left edge of the sprite
+	 * @param dy
+	 *            position of the top edge of the sprite
+	 */
+	public void draw(Framebuffer fb, int r, int dx, int dy) {
+		if (pixels == null) {
+			trim();
+		}
+		fb.blend(pixels, WIDTH, x[r] + trimX[r], y[r] + trimY[r], trimW[r],
+				trimH[r], dx + trimX[r], dy + trimY[r]);
+	}
+
+	/**
+	 * Reads the {@link #pixels} and finds the visible bounds of every region.
+	 */
+	protected void trim() {
+		pixels = Framebuffer.getPixels(image);
+		int n = id.length;
+		trimX = new int[n];
+		trimY = new int[n];
+		trimW = new int[n];
+		trimH = new int[n];
+		for (int r = 0; r < n; r++) {
+			int x0 = w[r], y0 = h[r], x1 = -1, y1 = -1;
+			for (int py = 0; py < h[r]; py++) {
+				for (int px = 0; px < w[r]; px++) {
+					if (pixels[(y[r] + py) * WIDTH + x[r] + px] >>> 24 != 0) {
+						x0 = Math.min(x0, px);
+						y0 = Math.min(y0, py);
+						x1 = Math.max(x1, px);
+						y1 = Math.max(y1, py);
+					}
+				}
+			}
+			if (x1 >= 0) {
+				trimX[r] = x0;
+				trimY[r] = y0;
+				trimW[r] = x1 - x0 + 1;
+				trimH[r] = y1 - y0 + 1;
+			}
+		}
+	}
+
+	/**
+	 * Saves the atlas image as a PNG file, and the list of its regions (ID,
+	 * variant, position and size) in a text file next to it, with the
+	 * <code>.txt</code> extension added.
+	 *
+	 * @param file
+	 *            the PNG file
+	 * @throws IOException
+	 *             if a file cannot be written
+	 */
+	public void dump(File file) throws IOException {
+		ImageIO.write(image, "png", file);
+		PrintWriter out = new PrintWriter(file.getPath() + ".txt", "UTF-8");
+		try {
+			out.println("# id variant x y width height");
+			for (int r = 0; r < id.length; r++) {
+				out.println(id[r] + " " + variant[r] + " " + x[r] + " " + y[r]
+						+ " " + w[r] + " " + h[r]);
+			}
+		} finally {
+			out.close();
+		}
+	}
+}
@@ -0,0 +1,186 @@
+/*
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ *  
+ *  (C) Copyright 2012 m4tx
+ *  http://www.m4tx.pl/
+ */
+
+package pl.m4tx.Carnobyl;
+
+import java.awt.Graphics2D;
+import java.io.File;
+import java.io.IOException;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Renders frames of a game into an offscreen {@link ImageTarget}, as fast
+ * as possible, without showing them. It works without a display, so it can
+ * measure the renderer on its own, or produce the reference images of the
+ * frames.
+ * <p>
+ * The frames follow a recorded game ({@link #renderReplay}), or a camera
+ * flying around the map ({@link #renderPath}). Every frame can be saved to
+ * a PNG file; saving isn't included in the measured time.
+ */
+public class BatchRenderer {
+	/**
+	 * Radius of the camera path in an unbounded world, in pixels.
+	 */
+	protected final static double PATH_RADIUS = 2048;
+
+	protected final Renderer renderer;
+	protected final ImageTarget target = new ImageTarget();
+	protected final Snapshot snapshot = new Snapshot();
+	/**
+	 * Directory the frames are saved to, <code>null</code> if they aren't.
+	 */
+	protected final File dumpDir;
+
+	/**
+	 * Number of the frames rendered, the total and the worst time of
+	 * rendering them, in nanoseconds.
+	 */
+	protected int frames = 0;
+	protected long renderNanos = 0, worstNanos = 0;
+
+	/**
+	 * Creates a new batch renderer.
+	 *
+	 * @param renderer
+	 *            the renderer
+	 * @param dumpDir
+	 *            directory the frames are saved to, <code>null</code> if
+	 *            they shouldn't be saved
+	 */
+	public BatchRenderer(Renderer renderer, File dumpDir) {
+		this.renderer = renderer;
+		this.dumpDir = dumpDir;
+		if (dumpDir != null) {
+			dumpDir.mkdirs();
+		}
+	}
+
+	/**
+	 * Renders the frames of a recorded game, until the recording ends.
+	 *
+	 * @param sim
+	 *            the simulation, created by {@link InputLog#createSimulation()}
+	 * @param log
+	 *            the recording
+	 * @param count
+	 *            maximum number of the frames
+	 * @param ticksPerFrame
+	 *            number of the ticks between the frames
+	 * @throws IOException
+	 *             if a frame can't be saved
+	 */
+	public void renderReplay(Simulation sim, InputLog log, int count,
+			int ticksPerFrame) throws IOException {
+		renderFrame(sim);
+		while (frames < count && log.replay(sim, ticksPerFrame) > 0) {
+			renderFrame(sim);
+		}
+	}
+
+	/**
+	 * Renders the frames seen by a camera circling around the map, at the
+	 * maximum speed of the car. The simulation isn't advanced - the car is
+	 * moved along the path, so buildings don't stop it, and the
+	 * pedestrians stand still.
+	 *
+	 * @param sim
+	 *            the simulation
+	 * @param count
+	 *            number of the frames
+	 * @param ticksPerFrame
+	 *            number of the ticks between the frames, used to calculate
+	 *            the distance
+	 * @throws IOException
+	 *             if a frame can't be saved
+	 */
+	public void renderPath(Simulation sim, int count, int ticksPerFrame)
+			throws IOException {
+		// Around the middle of a bounded map, through the start position in
+		// an unbounded one
+		double centerX, centerY, radius;
+		if (sim.getMapLength() > 0) {
+			centerX = centerY = sim.getMapLength() * Main.ROAD / 2.0;
+			radius = sim.getMapLength() * Main.ROAD * 0.35;
+		} else {
+			radius = PATH_RADIUS;
+			centerX = sim.carX + radius;
+			centerY = sim.carY;
+		}
+		double step = Simulation.MAX_SPEED * ticksPerFrame
+				/ Simulation.TICKS_PER_SECOND / radius;
+
+		for (int n = 0; n < count; n++) {
+			double angle = Math.PI + n * step;
+			sim.prevCarX = sim.carX;
+			sim.prevCarY = sim.carY;
+			sim.prevRotation = sim.rotation;
+			sim.carX = centerX + radius * Math.cos(angle);
+			sim.carY = centerY + radius * Math.sin(angle);
+			// Heading along the circle, in half-turns from the north
+			sim.rotation = Math.IEEEremainder(1 + angle / Math.PI, 2);
+			renderFrame(sim);
+		}
+	}
+
+	/**
+	 * Renders the current state of the simulation and saves the frame, if
+	 * needed.
+	 *
+	 * @param sim
+	 *            the simulation
+	 * @throws IOException
+	 *             if the frame can't be saved
+	 */
+	protected void renderFrame(Simulation sim) throws IOException {
+		snapshot.capture(sim);
+
+		long start = System.nanoTime();
+		Graphics2D g = target.getGraphics();
+		try {
+			renderer.render(g, snapshot, 1);
+		} finally {
+			g.dispose();
+		}
+		target.show();
+		long nanos = System.nanoTime() - start;
+		renderNanos += nanos;
+		worstNanos = Math.max(worstNanos, nanos);
+
+		if (dumpDir != null) {
+			ImageIO.write(target.getImage(), "png", new File(dumpDir,
+					String.format("frame-%05d.png", frames)));
+		}
+		frames++;
+	}
+
+	/**
+	 * Returns the statistics of the rendered frames.
+	 *
+	 * @return Number of the frames, frames per second, mean and worst frame
+	 *         time.
+	 */
+	@Override
+	public String toString() {
+		return String.format("%d frames, %.1f frames/s, frame %.2f ms, worst "
+				+ "%.2f ms", frames, frames * 1e9 / Math.max(renderNanos, 1),
+				renderNanos / 1e6 / Math.max(frames, 1), worstNanos / 1e6);
+	}
+}
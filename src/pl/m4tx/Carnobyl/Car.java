@@ -0,0 +1,203 @@
+/*
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ *  
+ *  (C) Copyright 2012 m4tx
+ *  http://www.m4tx.pl/
+ */
+
+package pl.m4tx.Carnobyl;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.geom.Arc2D;
+import java.awt.geom.Area;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.GeneralPath;
+import java.awt.geom.Rectangle2D;
+
+/**
+ * The player's car. Its shape and color are generated from the seed.
+ */
+public class Car {
+	/**
+	 * Strokes of the outline of the car and of its details.
+	 */
+	protected final static BasicStroke BODY_STROKE = new BasicStroke(3),
+			DETAIL_STROKE = new BasicStroke(2, BasicStroke.CAP_ROUND,
+					BasicStroke.JOIN_ROUND);
+
+	/**
+	 * Seed used by the car generator.
+	 */
+	protected final long seed;
+
+	/**
+	 * Color of the outline of the car.
+	 */
+	protected Color outline;
+	protected Area c, fwin, bwin, headlights, airInlet = null;
+	/**
+	 * Color of the car.
+	 */
+	protected int cr, cg, cb, avg;
+	protected Color fill;
+
+	/**
+	 * Creates a new car.
+	 * 
+	 * @param seed
+	 *            seed used by the car generator
+	 */
+	public Car(long seed) {
+		this.seed = seed;
+		createCar();
+	}
+
+	/**
+	 * Generates a car.
+	 */
+	protected void createCar() {
+		Rectangle2D.Float rect = new Rectangle2D.Float();
+		Ellipse2D.Float ellipse = new Ellipse2D.Float();
+
+		//
+		// Car
+		//
+		rect.setFrame(8, 24, 48, 72);
+		c = new Area(rect);
+
+		// Front
+		ellipse.setFrame(6, 0, 52, 58);
+		c.add(new Area(ellipse));
+
+		// Back
+		ellipse.setFrame(6, 55, 52, 78);
+		rect.setFrame(0, 122, 64, 20);
+		Area tmp = new Area(ellipse);
+		tmp.subtract(new Area(rect));
+		c.add(tmp);
+		c.add(new Area(new Arc2D.Float(13, 112, 38, 15, 180, 180, Arc2D.PIE)));
+
+		// Mirrors
+		ellipse.setFrame(0, 44, 16, 8);
+		rect.setFrame(0, 48, 16, 4);
+		tmp = new Area(ellipse);
+		tmp.subtract(new Area(rect));
+		c.add(tmp);
+		ellipse.x = 48;
+		rect.x = 48;
+		tmp = new Area(ellipse);
+		tmp.subtract(new Area(rect));
+		c.add(tmp);
+
+		// Front window
+		fwin = new Area(new Arc2D.Float(8, 30, 48, 30, 40, 100, Arc2D.CHORD));
+		fwin.add(new Area(createTrapezoid(17, 35, 37, 30, 15, false)));
+
+		// Back window
+		bwin = new Area(new Arc2D.Float(20, 95, 24, 20, 180, 180, Arc2D.CHORD));
+		bwin.add(new Area(createTrapezoid(20, 95, 28, 24, 10, false)));
+
+		// Headlights
+		headlights = new Area(new Arc2D.Float(9, 0, 10, 10, 240, 130,
+				Arc2D.OPEN));
+		headlights.add(new Area(new Arc2D.Float(45, 0, 10, 10, 160, 130,
+				Arc2D.OPEN)));
+
+		// Air inlet
+		if ((seed & 0x01) == 1) {
+			airInlet = new Area(createTrapezoid(27.5f, 55, 10, 8, 5, true));
+		}
+
+		// "Randomize" car's color from the seed
+		cr = (int) (seed & 0xff);
+		cg = (int) ((seed & 0xff00) >> 8);
+		cb = (int) ((seed & 0xff0000) >> 16);
+		fill = new Color(cr, cg, cb);
+		avg = ((cr + cg + cb) / 3);
+		// Outline of the car is white, when the car is dark
+		// ("average" color is under 128), and black if the car is
+		// bright.
+		outline = (avg < 128 ? Color.WHITE : Color.BLACK);
+	}
+
+	/**
+	 * Draws a car, centered at the origin of the graphics.
+	 * 
+	 * @param g
+	 *            a {@link Graphics2D} object.
+	 */
+	protected void drawCar(Graphics2D g) {
+		g.translate(-32, -64);
+
+		// Shape of the car
+		g.setStroke(BODY_STROKE);
+		g.setColor(outline);
+		g.draw(c);
+
+		g.setColor(fill);
+		g.fill(c);
+
+		// Windows
+		g.setStroke(DETAIL_STROKE);
+		g.setColor(outline);
+		g.draw(fwin);
+		g.draw(bwin);
+
+		// Others
+		g.draw(headlights);
+
+		if (airInlet != null) {
+			g.draw(airInlet);
+		}
+
+		g.translate(32, 64);
+	}
+
+	/**
+	 * Creates a trapezoid.
+	 * 
+	 * @param x
+	 *            position of the trapezoid on the X axis
+	 * @param y
+	 *            position of the trapezoid on the Y axis
+	 * @param a
+	 *            the top basis
+	 * @param b
+	 *            the bottom basis
+	 * @param h
+	 *            the height of the trapezoid
+	 * @return The newly created polygon - trapezoid.
+	 */
+	protected GeneralPath createTrapezoid(float x, float y, float a, float b,
+			float h, boolean close) {
+		float xPts[] = { x + (b - a) / 2, x, x + b, x + (b - a) / 2 + a };
+		float yPts[] = { y, y + h, y + h, y };
+		GeneralPath polygon = new GeneralPath(GeneralPath.WIND_EVEN_ODD,
+				xPts.length);
+		polygon.moveTo(xPts[0], yPts[0]);
+
+		for (int i = 1; i < xPts.length; i++) {
+			polygon.lineTo(xPts[i], yPts[i]);
+		}
+
+		if (close) {
+			polygon.closePath();
+		}
+
+		return polygon;
+	}
+}
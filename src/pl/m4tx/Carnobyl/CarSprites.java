@@ -0,0 +1,177 @@
+/*
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ *  
+ *  (C) Copyright 2012 m4tx
+ *  http://www.m4tx.pl/
+ */
+
+package pl.m4tx.Carnobyl;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.Transparency;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+
+/**
+ * The {@link Car} pre-rendered at a fixed number of headings.
+ * <p>
+ * Drawing the antialiased shapes of the car is one of the most expensive
+ * parts of the frame, so instead the car is drawn as the image of the
+ * nearest heading. The images are rendered lazily, when the car turns to
+ * the heading for the first time.
+ */
+public class CarSprites {
+	/**
+	 * Minimum, maximum and default number of the headings.
+	 */
+	public final static int MIN_HEADINGS = 64, MAX_HEADINGS = 360,
+			DEFAULT_HEADINGS = 128;
+
+	protected final Car car;
+	/**
+	 * Images of the car, heading 0 is the car heading up, the next ones are
+	 * rotated clockwise. <code>null</code> if not rendered yet.
+	 */
+	protected final BufferedImage[] sprites;
+	/**
+	 * Pixels of the {@link #sprites}, read when they're drawn into a
+	 * {@link Framebuffer} for the first time.
+	 */
+	protected final int[][] pixels;
+	/**
+	 * Distance from the center of the image to its edges. The car fits into
+	 * it at any heading.
+	 */
+	protected final int radius;
+
+	/**
+	 * Creates a new, empty cache.
+	 *
+	 * @param car
+	 *            the car
+	 * @param headings
+	 *            number of the headings, from {@link #MIN_HEADINGS} to
+	 *            {@link #MAX_HEADINGS}
+	 */
+	public CarSprites(Car car, int headings) {
+		this.car = car;
+		sprites = new BufferedImage[Math.max(MIN_HEADINGS, Math.min(headings,
+				MAX_HEADINGS))];
+		pixels = new int[sprites.length][];
+
+		// The farthest corner of the bounds (the car is drawn moved by -32,
+		// -64), plus the stroke
+		Rectangle2D b = car.c.getBounds2D();
+		double dx = Math.max(Math.abs(b.getMinX() - 32),
+				Math.abs(b.getMaxX() - 32));
+		double dy = Math.max(Math.abs(b.getMinY() - 64),
+				Math.abs(b.getMaxY() - 64));
+		radius = (int) Math.ceil(Math.sqrt(dx * dx + dy * dy)) + 2;
+	}
+
+	/**
+	 * Returns the heading nearest to the rotation.
+	 *
+	 * @param rotation
+	 *            rotation of the car, in half-turns
+	 * @return Index of the heading.
+	 */
+	protected int heading(double rotation) {
+		long n = Math.round(rotation / 2 * sprites.length);
+		return (int) Math.floorMod(n, (long) sprites.length);
+	}
+
+	/**
+	 * Draws the car, centered at given point, into a framebuffer.
+	 *
+	 * @param fb
+	 *            the framebuffer
+	 * @param x
+	 *            position of the center of the car on the X axis
+	 * @param y
+	 *            position of the center of the car on the Y axis
+	 * @param rotation
+	 *            rotation of the car, in half-turns
+	 */
+	public void draw(Framebuffer fb, int x, int y, double rotation) {
+		int h = heading(rotation);
+		if (pixels[h] == null) {
+			if (sprites[h] == null) {
+				sprites[h] = render(h);
+			}
+			pixels[h] = Framebuffer.getPixels(sprites[h]);
+		}
+		fb.blend(pixels[h], radius * 2, 0, 0, radius * 2, radius * 2, x
+				- radius, y - radius);
+	}
+
+	/**
+	 * Draws the car, centered at given point.
+	 *
+	 * @param g
+	 *            a {@link Graphics2D} object.
+	 * @param x
+	 *            position of the center of the car on the X axis
+	 * @param y
+	 *            position of the center of the car on the Y axis
+	 * @param rotation
+	 *            rotation of the car, in half-turns
+	 */
+	public void draw(Graphics2D g, int x, int y, double rotation) {
+		int h = heading(rotation);
+		if (sprites[h] == null) {
+			sprites[h] = render(h);
+		}
+		g.drawImage(sprites[h], x - radius, y - radius, null);
+	}
+
+	/**
+	 * Renders the car at the heading.
+	 *
+	 * @param heading
+	 *            index of the heading
+	 * @return Image of the car.
+	 */
+	protected BufferedImage render(int heading) {
+		BufferedImage img = Generator.getCmptblImg(radius * 2, radius * 2,
+				Transparency.TRANSLUCENT);
+		Graphics2D g = img.createGraphics();
+		g.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
+				RenderingHints.VALUE_ANTIALIAS_ON);
+		g.setRenderingHint(RenderingHints.KEY_RENDERING,
+				RenderingHints.VALUE_RENDER_QUALITY);
+		g.translate(radius, radius);
+		g.rotate(2 * Math.PI * heading / sprites.length);
+		car.drawCar(g);
+		g.dispose();
+		return img;
+	}
+
+	/**
+	 * Returns the number of the rendered images.
+	 *
+	 * @return Number of the images.
+	 */
+	public int getRenderedCount() {
+		int n = 0;
+		for (BufferedImage sprite : sprites) {
+			if (sprite != null) {
+				n++;
+			}
+		}
+		return n;
+	}
+}
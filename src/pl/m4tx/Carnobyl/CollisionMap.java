@@ -0,0 +1,87 @@
+/*
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ *  
+ *  (C) Copyright 2012 m4tx
+ *  http://www.m4tx.pl/
+ */
+
+package pl.m4tx.Carnobyl;
+
+/**
+ * Bitmap of the solid cells of the map - the cells the car can't drive
+ * into ({@link Main#IMG_BUILDING} and {@link Main#IMG_LEVEL_END}).
+ * <p>
+ * Cells outside of the map are not solid.
+ */
+public class CollisionMap {
+	/**
+	 * Size of the map, in cells.
+	 */
+	protected final int width, height;
+	/**
+	 * Bits of the cells, row by row: cell <code>(x, y)</code> is bit
+	 * <code>y * width + x</code>.
+	 */
+	protected final long[] bits;
+
+	/**
+	 * Creates the bitmap of given tile map.
+	 *
+	 * @param map
+	 *            the tile map
+	 */
+	public CollisionMap(int[][] map) {
+		width = map.length;
+		height = (width == 0 ? 0 : map[0].length);
+		bits = new long[(width * height + 63) / 64];
+		for (int x = 0; x < width; x++) {
+			for (int y = 0; y < height; y++) {
+				if (isSolidTile(map[x][y])) {
+					int bit = y * width + x;
+					bits[bit >>> 6] |= 1L << bit;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Checks if given tile is solid.
+	 *
+	 * @param tile
+	 *            ID of the tile
+	 * @return <code>true</code> if the car can't drive into the tile.
+	 */
+	public static boolean isSolidTile(int tile) {
+		return tile == Main.IMG_BUILDING || tile == Main.IMG_LEVEL_END;
+	}
+
+	/**
+	 * Checks if given cell is solid.
+	 *
+	 * @param x
+	 *            column of the cell
+	 * @param y
+	 *            row of the cell
+	 * @return <code>true</code> if the cell is solid, <code>false</code> if
+	 *         it isn't or if it's outside of the map.
+	 */
+	public boolean isSolid(int x, int y) {
+		if (x < 0 || y < 0 || x >= width || y >= height) {
+			return false;
+		}
+		int bit = y * width + x;
+		return (bits[bit >>> 6] & (1L << bit)) != 0;
+	}
+}
@@ -0,0 +1,265 @@
+/*
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ *  
+ *  (C) Copyright 2012 m4tx
+ *  http://www.m4tx.pl/
+ */
+
+package pl.m4tx.Carnobyl;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Moves the pedestrians: they wander around, don't walk into the solid
+ * cells, and run away from the car.
+ * <p>
+ * Every pedestrian is updated using only its own state, the map and the
+ * position of the car, so the pedestrians are updated in parallel, by a
+ * {@link ForkJoinPool}, in ranges of {@link #BATCH} indices. Random decisions
+ * don't use a shared generator either; they are a hash of the seed, the tick
+ * and the pedestrian index (a counter-based generator). Because of that, the
+ * result doesn't depend on the number of threads, and replays stay exact.
+ * <p>
+ * Velocities and positions are in fixed point, see {@link Pedestrians}.
+ * <p>
+ * The pedestrians are slow, so their {@link PedestrianGrid} doesn't have to
+ * be rebuilt after every tick: it's rebuilt every {@link #REBUILD_TICKS}
+ * ticks, and queried with a margin of {@link #MAX_DRIFT} pixels.
+ */
+public class Crowd {
+	/**
+	 * Speed of a walking pedestrian, in 1/{@link Pedestrians#SUBPIXELS} of a
+	 * pixel per tick (30 pixels per second).
+	 */
+	protected final static int WALK_SPEED = 64;
+	/**
+	 * Speed of a pedestrian running away from the car (90 pixels per
+	 * second).
+	 */
+	protected final static int RUN_SPEED = 192;
+	/**
+	 * Distance from the car at which pedestrians start running away, in
+	 * pixels.
+	 */
+	protected final static int FLEE_RADIUS = 256;
+	/**
+	 * A wandering pedestrian changes its direction on average once per that
+	 * many ticks. It must be a power of 2.
+	 */
+	protected final static int TURN_TICKS = 256;
+	/**
+	 * Number of the ticks between the rebuilds of the pedestrian index.
+	 */
+	protected final static int REBUILD_TICKS = 32;
+	/**
+	 * Max distance, on each axis, a pedestrian can move between the rebuilds
+	 * of the index, in pixels.
+	 */
+	public final static int MAX_DRIFT = REBUILD_TICKS * RUN_SPEED
+			/ Pedestrians.SUBPIXELS + 1;
+	/**
+	 * Number of the pedestrians updated by a single task.
+	 */
+	protected final static int BATCH = 4096;
+
+	/**
+	 * Directions of the wandering pedestrians, as vectors of length
+	 * {@link Pedestrians#SUBPIXELS}.
+	 */
+	protected final static int[] DIR_X = { 256, 181, 0, -181, -256, -181, 0,
+			181 };
+	protected final static int[] DIR_Y = { 0, 181, 256, 181, 0, -181, -256,
+			-181 };
+
+	protected final Simulation sim;
+	/**
+	 * Seed of the random decisions, different from the seed of the
+	 * simulation.
+	 */
+	protected final long seed;
+	/**
+	 * Pool running the updates.
+	 */
+	protected ForkJoinPool pool = ForkJoinPool.commonPool();
+
+	/**
+	 * Creates a new crowd.
+	 *
+	 * @param sim
+	 *            the simulation, whose map is used
+	 */
+	public Crowd(Simulation sim) {
+		this.sim = sim;
+		seed = Simulation.mix(sim.seed ^ 0x6a09e667f3bcc909L);
+	}
+
+	/**
+	 * Moves all the alive pedestrians by a single tick, and rebuilds their
+	 * index if it's the time.
+	 *
+	 * @param peds
+	 *            the pedestrians
+	 * @param grid
+	 *            index of the pedestrians
+	 * @param tick
+	 *            number of the tick
+	 * @param carX
+	 *            position of the car's center on the X axis
+	 * @param carY
+	 *            position of the car's center on the Y axis
+	 */
+	public void move(Pedestrians peds, PedestrianGrid grid, long tick,
+			double carX, double carY) {
+		if (peds.size() <= BATCH) {
+			move(peds, 0, peds.size(), tick, carX, carY);
+		} else {
+			pool.invoke(new MoveTask(peds, 0, peds.size(), tick, carX, carY));
+		}
+
+		grid.margin = MAX_DRIFT;
+		if ((tick + 1) % REBUILD_TICKS == 0) {
+			grid.build(peds);
+		}
+	}
+
+	/**
+	 * Moves a range of the pedestrians by a single tick.
+	 *
+	 * @param peds
+	 *            the pedestrians
+	 * @param from
+	 *            index of the first pedestrian
+	 * @param to
+	 *            index after the last pedestrian
+	 * @param tick
+	 *            number of the tick
+	 * @param carX
+	 *            position of the car's center on the X axis
+	 * @param carY
+	 *            position of the car's center on the Y axis
+	 */
+	protected void move(Pedestrians peds, int from, int to, long tick,
+			double carX, double carY) {
+		int[] x = peds.x, y = peds.y, vx = peds.vx, vy = peds.vy;
+		int[] subX = peds.subX, subY = peds.subY, state = peds.state;
+		long tickSeed = seed + tick * 0x9e3779b97f4a7c15L;
+		for (int i = from; i < to; i++) {
+			if (state[i] != Pedestrians.ALIVE) {
+				continue;
+			}
+			int px = x[i], py = y[i];
+
+			double dx = px - carX, dy = py - carY, d2 = dx * dx + dy * dy;
+			if (d2 < FLEE_RADIUS * FLEE_RADIUS) {
+				if (d2 > 0) {
+					double d = Math.sqrt(d2);
+					vx[i] = (int) (dx / d * RUN_SPEED);
+					vy[i] = (int) (dy / d * RUN_SPEED);
+				}
+			} else {
+				long h = Simulation.mix(tickSeed + i * 0xc2b2ae3d27d4eb4fL);
+				if ((h & (TURN_TICKS - 1)) == 0) {
+					// One more choice than directions - standing still
+					int dir = (int) ((h >>> 32) % (DIR_X.length + 1));
+					if (dir == DIR_X.length) {
+						vx[i] = vy[i] = 0;
+					} else {
+						vx[i] = DIR_X[dir] * WALK_SPEED / Pedestrians.SUBPIXELS;
+						vy[i] = DIR_Y[dir] * WALK_SPEED / Pedestrians.SUBPIXELS;
+					}
+				}
+			}
+
+			// Each axis separately, so the pedestrians slide along the walls.
+			// Pedestrians are never in a solid cell, so only moving to another
+			// cell has to be checked.
+			int sx = subX[i] + vx[i];
+			int nx = px + (sx >> Pedestrians.SUBPIXEL_BITS);
+			if (cell(nx) != cell(px) && isBlocked(nx, py)) {
+				vx[i] = -vx[i];
+			} else {
+				x[i] = px = nx;
+				subX[i] = sx & (Pedestrians.SUBPIXELS - 1);
+			}
+			int sy = subY[i] + vy[i];
+			int ny = py + (sy >> Pedestrians.SUBPIXEL_BITS);
+			if (cell(ny) != cell(py) && isBlocked(px, ny)) {
+				vy[i] = -vy[i];
+			} else {
+				y[i] = ny;
+				subY[i] = sy & (Pedestrians.SUBPIXELS - 1);
+			}
+		}
+	}
+
+	/**
+	 * Returns the map cell containing given position.
+	 *
+	 * @param p
+	 *            the position, on any axis
+	 * @return Column or row of the cell.
+	 */
+	protected static int cell(int p) {
+		return Math.floorDiv(p, Main.ROAD);
+	}
+
+	/**
+	 * Checks if a pedestrian can't stand at given position.
+	 *
+	 * @param x
+	 *            position on the X axis
+	 * @param y
+	 *            position on the Y axis
+	 * @return <code>true</code> if the position is in a solid cell.
+	 */
+	protected boolean isBlocked(int x, int y) {
+		return sim.isSolid(cell(x), cell(y));
+	}
+
+	/**
+	 * Task moving a range of the pedestrians, split in halves until it's not
+	 * bigger than {@link #BATCH}.
+	 */
+	protected class MoveTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		protected final Pedestrians peds;
+		protected final int from, to;
+		protected final long tick;
+		protected final double carX, carY;
+
+		protected MoveTask(Pedestrians peds, int from, int to, long tick,
+				double carX, double carY) {
+			this.peds = peds;
+			this.from = from;
+			this.to = to;
+			this.tick = tick;
+			this.carX = carX;
+			this.carY = carY;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from <= BATCH) {
+				move(peds, from, to, tick, carX, carY);
+				return;
+			}
+			int middle = (from + to) >>> 1;
+			invokeAll(new MoveTask(peds, from, middle, tick, carX, carY),
+					new MoveTask(peds, middle, to, tick, carX, carY));
+		}
+	}
+}
@@ -0,0 +1,192 @@
+/*
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ *  
+ *  (C) Copyright 2012 m4tx
+ *  http://www.m4tx.pl/
+ */
+
+package pl.m4tx.Carnobyl;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Paces the frames of the main loop and measures how regular they are.
+ * <p>
+ * The frames are scheduled on a fixed grid of deadlines, with a nanosecond
+ * resolution, so a frame that took a bit longer doesn't delay all the next
+ * ones. Waiting for a deadline parks the thread until it's close, and then
+ * yields in a loop for the rest of the time, because parking alone can
+ * oversleep by a millisecond or more on some systems.
+ * <p>
+ * The simulation runs at its own, fixed rate (see
+ * {@link Simulation#step(int, long)}), so the render rate can be set to any
+ * value, or left uncapped.
+ * <p>
+ * Frame times are collected over windows of {@link #WINDOW_NANOS}; the
+ * statistics of the last complete window are available through the getters.
+ */
+public class FrameScheduler {
+	/**
+	 * Time before the deadline when the scheduler stops parking and starts
+	 * spinning.
+	 */
+	protected final static long SPIN_NANOS = 1500000;
+	/**
+	 * Length of the statistics window.
+	 */
+	protected final static long WINDOW_NANOS = 1000000000;
+
+	/**
+	 * Time between the frames, 0 if the frame rate is uncapped.
+	 */
+	protected final long period;
+	/**
+	 * Deadline of the next frame.
+	 */
+	protected long deadline;
+	/**
+	 * Start of the current frame.
+	 */
+	protected long frameStart;
+
+	/**
+	 * Statistics of the current window.
+	 */
+	protected long windowStart, frames, sum, max;
+	protected double sumSq;
+
+	/**
+	 * Statistics of the last complete window.
+	 */
+	protected double fps, meanNanos, jitterNanos;
+	protected long worstNanos;
+
+	/**
+	 * Creates a new scheduler. The first frame starts now.
+	 *
+	 * @param fps
+	 *            number of frames per second, 0 means uncapped
+	 */
+	public FrameScheduler(int fps) {
+		period = (fps <= 0 ? 0 : 1000000000L / fps);
+		frameStart = windowStart = deadline = System.nanoTime();
+	}
+
+	/**
+	 * Ends the current frame: waits for the deadline of the next frame
+	 * (unless uncapped), and updates the statistics.
+	 *
+	 * @return <code>true</code> if a statistics window was completed, i.e.
+	 *         the getters return new values.
+	 */
+	public boolean endFrame() {
+		if (period > 0) {
+			deadline += period;
+			long now = System.nanoTime();
+			if (now - deadline > period) {
+				// Too late to catch up, start again from now
+				deadline = now;
+			} else {
+				waitUntil(deadline);
+			}
+		}
+
+		long now = System.nanoTime();
+		long frame = now - frameStart;
+		frameStart = now;
+		frames++;
+		sum += frame;
+		sumSq += (double) frame * frame;
+		max = Math.max(max, frame);
+
+		if (now - windowStart < WINDOW_NANOS) {
+			return false;
+		}
+		meanNanos = (double) sum / frames;
+		jitterNanos = Math.sqrt(Math.max(sumSq / frames - meanNanos
+				* meanNanos, 0));
+		worstNanos = max;
+		fps = frames * 1e9 / (now - windowStart);
+		windowStart = now;
+		frames = sum = max = 0;
+		sumSq = 0;
+		return true;
+	}
+
+	/**
+	 * Waits until given time, parking the thread for the most of the time,
+	 * and spinning for the last {@link #SPIN_NANOS}.
+	 *
+	 * @param deadline
+	 *            the time, as returned by {@link System#nanoTime()}
+	 */
+	protected static void waitUntil(long deadline) {
+		while (true) {
+			long left = deadline - System.nanoTime();
+			if (left <= 0) {
+				return;
+			}
+			if (left > SPIN_NANOS) {
+				LockSupport.parkNanos(left - SPIN_NANOS);
+			} else {
+				Thread.yield();
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of frames per second in the last window.
+	 *
+	 * @return Frames per second.
+	 */
+	public double getFps() {
+		return fps;
+	}
+
+	/**
+	 * Returns the mean frame time in the last window.
+	 *
+	 * @return Mean frame time, in nanoseconds.
+	 */
+	public double getMeanNanos() {
+		return meanNanos;
+	}
+
+	/**
+	 * Returns the jitter (standard deviation of the frame time) in the last
+	 * window.
+	 *
+	 * @return Jitter, in nanoseconds.
+	 */
+	public double getJitterNanos() {
+		return jitterNanos;
+	}
+
+	/**
+	 * Returns the longest frame time in the last window.
+	 *
+	 * @return Longest frame time, in nanoseconds.
+	 */
+	public long getWorstNanos() {
+		return worstNanos;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%.1f fps, frame %.2f ms, jitter %.3f ms, "
+				+ "worst %.2f ms", fps, meanNanos / 1e6, jitterNanos / 1e6,
+				worstNanos / 1e6);
+	}
+}
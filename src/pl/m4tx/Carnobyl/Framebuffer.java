@@ -0,0 +1,228 @@
+/*
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ *  
+ *  (C) Copyright 2012 m4tx
+ *  http://www.m4tx.pl/
+ */
+
+package pl.m4tx.Carnobyl;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+
+/**
+ * Opaque image whose pixels are written directly, as an <code>int[]</code>
+ * array of the RGB values, row by row.
+ * <p>
+ * Images are drawn on it by copying their rows, if they're opaque
+ * ({@link #copy}), or by blending every pixel with its alpha, if they're
+ * translucent ({@link #blend}). The fully opaque and the fully transparent
+ * pixels of the translucent images are only copied or skipped, so most
+ * pixels of a sprite don't need any arithmetic.
+ * <p>
+ * The pixels are backed by a <code>TYPE_INT_RGB</code>
+ * {@link BufferedImage}, so the framebuffer can be shown with a single
+ * <code>drawImage()</code> call, or drawn on by Java2D.
+ */
+public class Framebuffer {
+	protected final BufferedImage image;
+	protected final int[] pixels;
+	protected final int width, height;
+
+	/**
+	 * Creates a new, black framebuffer.
+	 *
+	 * @param width
+	 *            width, in pixels
+	 * @param height
+	 *            height, in pixels
+	 */
+	public Framebuffer(int width, int height) {
+		this(new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB));
+	}
+
+	/**
+	 * Creates a framebuffer writing to the pixels of an image.
+	 *
+	 * @param image
+	 *            a <code>TYPE_INT_RGB</code> image
+	 */
+	public Framebuffer(BufferedImage image) {
+		this.image = image;
+		pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+		width = image.getWidth();
+		height = image.getHeight();
+	}
+
+	/**
+	 * Returns the ARGB pixels of an image, as stored by this class: row by
+	 * row, not premultiplied. The pixels of <code>TYPE_INT_RGB</code> images
+	 * are returned directly, other images are converted.
+	 *
+	 * @param image
+	 *            the image
+	 * @return The pixels.
+	 */
+	public static int[] getPixels(BufferedImage image) {
+		if (image.getType() == BufferedImage.TYPE_INT_RGB) {
+			return ((DataBufferInt) image.getRaster().getDataBuffer())
+					.getData();
+		}
+		int w = image.getWidth(), h = image.getHeight();
+		return image.getRGB(0, 0, w, h, null, 0, w);
+	}
+
+	/**
+	 * Copies a part of an opaque image, row by row.
+	 *
+	 * @param src
+	 *            pixels of the image
+	 * @param srcWidth
+	 *            width of the image
+	 * @param sx
+	 *            left edge of the part
+	 * @param sy
+	 *            top edge of the part
+	 * @param w
+	 *            width of the part
+	 * @param h
+	 *            height of the part
+	 * @param dx
+	 *            position of the left edge of the part in the framebuffer
+	 * @param dy
+	 *            position of the top edge of the part in the framebuffer
+	 */
+	public void copy(int[] src, int srcWidth, int sx, int sy, int w, int h,
+			int dx, int dy) {
+		// Clip to the framebuffer
+		if (dx < 0) {
+			sx -= dx;
+			w += dx;
+			dx = 0;
+		}
+		if (dy < 0) {
+			sy -= dy;
+			h += dy;
+			dy = 0;
+		}
+		w = Math.min(w, width - dx);
+		h = Math.min(h, height - dy);
+		if (w <= 0) {
+			return;
+		}
+		for (int y = 0; y < h; y++) {
+			System.arraycopy(src, (sy + y) * srcWidth + sx, pixels, (dy + y)
+					* width + dx, w);
+		}
+	}
+
+	/**
+	 * Draws a part of a translucent image, blending it with the pixels
+	 * already drawn.
+	 *
+	 * @param src
+	 *            ARGB pixels of the image, not premultiplied
+	 * @param srcWidth
+	 *            width of the image
+	 * @param sx
+	 *            left edge of the part
+	 * @param sy
+	 *            top edge of the part
+	 * @param w
+	 *            width of the part
+	 * @param h
+	 *            height of the part
+	 * @param dx
+	 *            position of the left edge of the part in the framebuffer
+	 * @param dy
+	 *            position of the top edge of the part in the framebuffer
+	 */
+	public void blend(int[] src, int srcWidth, int sx, int sy, int w, int h,
+			int dx, int dy) {
+		if (dx < 0) {
+			sx -= dx;
+			w += dx;
+			dx = 0;
+		}
+		if (dy < 0) {
+			sy -= dy;
+			h += dy;
+			dy = 0;
+		}
+		w = Math.min(w, width - dx);
+		h = Math.min(h, height - dy);
+		if (w <= 0) {
+			return;
+		}
+		for (int y = 0; y < h; y++) {
+			int s = (sy + y) * srcWidth + sx, d = (dy + y) * width + dx;
+			for (int end = s + w; s < end; s++, d++) {
+				int argb = src[s], a = argb >>> 24;
+				if (a == 255) {
+					pixels[d] = argb;
+				} else if (a != 0) {
+					pixels[d] = mix(argb, pixels[d], a);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Darkens the whole framebuffer, as if it was covered with a translucent
+	 * black.
+	 *
+	 * @param alpha
+	 *            opacity of the black, from 0 to 1
+	 */
+	public void darken(double alpha) {
+		int a = (int) Math.round(Math.max(Math.min(alpha, 1), 0) * 255);
+		if (a == 0) {
+			return;
+		}
+		for (int i = 0; i < pixels.length; i++) {
+			pixels[i] = mix(0, pixels[i], a);
+		}
+	}
+
+	/**
+	 * Fills the whole framebuffer with a color.
+	 *
+	 * @param rgb
+	 *            the color
+	 */
+	public void fill(int rgb) {
+		Arrays.fill(pixels, rgb);
+	}
+
+	/**
+	 * Mixes two colors.
+	 *
+	 * @param src
+	 *            the color drawn
+	 * @param dst
+	 *            the color drawn over
+	 * @param a
+	 *            opacity of the drawn color, from 0 to 255
+	 * @return The mixed color, opaque.
+	 */
+	protected static int mix(int src, int dst, int a) {
+		int b = 255 - a;
+		int r = ((src >> 16 & 0xff) * a + (dst >> 16 & 0xff) * b + 127) / 255;
+		int g = ((src >> 8 & 0xff) * a + (dst >> 8 & 0xff) * b + 127) / 255;
+		int bl = ((src & 0xff) * a + (dst & 0xff) * b + 127) / 255;
+		return 0xff000000 | r << 16 | g << 8 | bl;
+	}
+}
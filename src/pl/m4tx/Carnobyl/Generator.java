@@ -0,0 +1,375 @@
+/*
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ *  
+ *  (C) Copyright 2012 m4tx
+ *  http://www.m4tx.pl/
+ */
+
+package pl.m4tx.Carnobyl;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.GraphicsEnvironment;
+import java.awt.Image;
+import java.awt.RenderingHints;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+/**
+ * Generator of all the images used by the game.
+ * <p>
+ * It doesn't need any window, so the images can be generated also when
+ * running headless (e.g. in the benchmarks).
+ */
+public class Generator {
+	/**
+	 * Version of the generated images. It must be increased whenever a change
+	 * of the generator changes any pixel for the same seed, so the images
+	 * stored by the {@link AssetCache} get invalidated.
+	 */
+	protected final static int VERSION = 2;
+
+	/**
+	 * Seed used by the image generator.
+	 */
+	protected final long seed;
+	/**
+	 * Random number generator.
+	 */
+	protected final Random random;
+
+	/**
+	 * Creates a new generator.
+	 * 
+	 * @param seed
+	 *            seed used by the image generator
+	 */
+	public Generator(long seed) {
+		this.seed = seed;
+		random = new Random(seed);
+	}
+
+	/**
+	 * Generates an image, together with all the images it's derived from.
+	 * 
+	 * @param image
+	 *            ID of the image specified by <code>IMG_*</code> static fields.
+	 * @return Generated image.
+	 * @see #getDependencies(int)
+	 */
+	protected Image getImage(int image) {
+		int[] dependencies = getDependencies(image);
+		Image[] inputs = new Image[dependencies.length];
+		for (int i = 0; i < dependencies.length; i++) {
+			inputs[i] = getImage(dependencies[i]);
+		}
+		return getImage(image, inputs);
+	}
+
+	/**
+	 * Returns IDs of the images that given image is derived from. The road
+	 * tiles make a chain: the asphalt is painted with the lines to get the
+	 * horizontal road, which is rotated to get the vertical one, which is
+	 * closed to get the road end, which is rotated to get the other ends.
+	 * 
+	 * @param image
+	 *            ID of the image specified by <code>IMG_*</code> static fields.
+	 * @return IDs of the images, or an empty array if the image is generated
+	 *         from scratch.
+	 */
+	protected static int[] getDependencies(int image) {
+		switch (image) {
+		case Main.IMG_ROAD_HORI:
+			return new int[] { Main.IMG_ASPHALT };
+		case Main.IMG_ROAD_VERT:
+			return new int[] { Main.IMG_ROAD_HORI };
+		case Main.IMG_ROAD_END_UP:
+			return new int[] { Main.IMG_ROAD_VERT };
+		case Main.IMG_ROAD_END_DOWN:
+		case Main.IMG_ROAD_END_LEFT:
+		case Main.IMG_ROAD_END_RIGHT:
+			return new int[] { Main.IMG_ROAD_END_UP };
+		default:
+			return new int[0];
+		}
+	}
+
+	/**
+	 * Generates an image from the images it's derived from. The inputs are
+	 * only read, so they can be shared by many derived images.
+	 * 
+	 * @param image
+	 *            ID of the image specified by <code>IMG_*</code> static fields.
+	 * @param inputs
+	 *            the images returned by {@link #getDependencies(int)}, in the
+	 *            same order
+	 * @return Generated image.
+	 */
+	protected Image getImage(int image, Image[] inputs) {
+		BufferedImage img = null;
+
+		if (image == Main.IMG_CHECKERED) {
+			img = getCmptblImg(Main.W, Main.H, Transparency.OPAQUE);
+		} else if (image > 200) {
+			img = getCmptblImg(Main.TILE, Main.TILE, Transparency.TRANSLUCENT);
+		} else if (image > 150) {
+			img = getCmptblImg(Main.ROAD, Main.ROAD, Transparency.OPAQUE);
+		} else if (image > 100) {
+			img = getCmptblImg(Main.TILE, Main.TILE, Transparency.OPAQUE);
+		}
+		Graphics2D g = img.createGraphics();
+		g.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
+				RenderingHints.VALUE_ANTIALIAS_ON);
+
+		switch (image) {
+		case Main.IMG_GRASS: {
+			// Columns first, to keep the order of the random numbers
+			int[] px = new int[Main.TILE * Main.TILE];
+			for (int x = 0; x < Main.TILE; x++) {
+				for (int y = 0; y < Main.TILE; y++) {
+					px[y * Main.TILE + x] = Texture.rndArgb(random, 255, 0, 0,
+							25, 230, 25, 0, 25);
+				}
+			}
+			Texture.write(img, px);
+			break;
+		}
+		case Main.IMG_ASPHALT: {
+			int[] px = new int[Main.ROAD * Main.ROAD];
+			for (int x = 0; x < Main.ROAD; x++) {
+				for (int y = 0; y < Main.ROAD; y++) {
+					px[y * Main.ROAD + x] = (random.nextInt(4) < 3 ? Texture
+							.rndArgb(random, 255, 0, 0, 40, 0, 40, 0, 40)
+							: Texture.rndArgb(random, 255, 0, 80, 20, 80, 20,
+									80, 20));
+				}
+			}
+			Texture.write(img, px);
+			break;
+		}
+		case Main.IMG_ROAD_VERT:
+			Texture.write(img, Texture.rotate(inputs[0], 1));
+			break;
+		case Main.IMG_ROAD_HORI:
+			Texture.write(img, Texture.rotate(inputs[0], 0));
+			g.setStroke(new BasicStroke(5));
+			g.setColor(rndPxl(255, 0, 245, 10, 245, 10, 245, 10));
+			g.drawLine(Main.ROAD / 2, 32, Main.ROAD / 2, Main.ROAD - 32);
+			g.setColor(rndPxl(255, 0, 180, 20, 180, 20, 180, 20));
+			g.drawLine(0, 0, 0, Main.ROAD);
+			g.drawLine(Main.ROAD, 0, Main.ROAD, Main.ROAD);
+			break;
+		case Main.IMG_ROAD_END_UP:
+			Texture.write(img, Texture.rotate(inputs[0], 0));
+			g.setColor(rndPxl(255, 0, 180, 20, 180, 20, 180, 20));
+			g.setStroke(new BasicStroke(5));
+			g.drawLine(0, 0, Main.ROAD, 0);
+			break;
+		case Main.IMG_ROAD_END_DOWN:
+			Texture.write(img, Texture.rotate(inputs[0], 2));
+			break;
+		case Main.IMG_ROAD_END_LEFT:
+			Texture.write(img, Texture.rotate(inputs[0], 3));
+			break;
+		case Main.IMG_ROAD_END_RIGHT:
+			Texture.write(img, Texture.rotate(inputs[0], 1));
+			break;
+		case Main.IMG_LEVEL_END: {
+			int p1 = Texture.rndArgb(random, 255, 0, 200, 20, 0, 10, 0, 10);
+			int p2 = Texture.rndArgb(random, 255, 0, 245, 10, 245, 10, 245, 10);
+			int[] px = new int[Main.ROAD * Main.ROAD];
+			for (int y = 0, i = 0; y < Main.ROAD; y++) {
+				for (int x = 0; x < Main.ROAD; x++, i++) {
+					px[i] = ((x + y) % 16 < 10 ? p1 : p2);
+				}
+			}
+			Texture.write(img, px);
+			break;
+		}
+		case Main.IMG_BUILDING: {
+			int[] px = new int[Main.ROAD * Main.ROAD];
+			for (int x = 0; x < Main.ROAD; x++) {
+				for (int y = 0; y < Main.ROAD; y++) {
+					px[y * Main.ROAD + x] = Texture.rndArgb(random, 255, 0,
+							200, 20, 200, 20, 200, 20);
+				}
+			}
+			Texture.write(img, px);
+			g.setStroke(new BasicStroke(3));
+			g.setColor(rndPxl(255, 0, 100, 10, 100, 10, 100, 10));
+			g.drawLine(0, 0, 0, Main.ROAD);
+			g.drawRect(0, 0, Main.ROAD, Main.ROAD);
+			break;
+		}
+		case Main.IMG_CHECKERED: {
+			int p1 = Texture.rndArgb(random, 255, 0, 170, 50, 0, 50, 0, 50);
+			int p2 = Texture.rndArgb(random, 255, 0, 205, 50, 205, 50, 205, 50);
+			int[] px = new int[Main.W * Main.H];
+			for (int y = 0, i = 0; y < Main.H; y++) {
+				int shift = ((y % 20) > 10 ? 10 : 0);
+				for (int x = 0; x < Main.W; x++, i++) {
+					px[i] = ((x + shift) % 20 < 10 ? p1 : p2);
+				}
+			}
+			Texture.write(img, px);
+			break;
+		}
+		case Main.IMG_BLOOD: {
+			// Puddles
+			int x, y, w;
+			for (int i = 0; i < 16; i++) {
+				x = random.nextInt(Main.TILE);
+				y = random.nextInt(Main.TILE);
+				w = random.nextInt(Main.TILE / 2);
+				if ((x + w) > Main.TILE) {
+					x -= x + w - Main.TILE;
+				}
+				if ((y + w) > Main.TILE) {
+					y -= y + w - Main.TILE;
+				}
+				g.setColor(rndPxl(255, 0, 200, 10, 40, 10, 30, 20));
+				g.fillOval(x, y, w, w);
+			}
+			break;
+		}
+		case Main.IMG_PEDESTRIAN:
+			g.translate(Main.TILE / 2, Main.TILE / 2);
+			g.rotate((random.nextDouble() - 1) * 2 * Math.PI);
+			g.translate(-Main.TILE / 2, -Main.TILE / 2);
+
+			// Trunk
+			g.setColor(rndPxl(255, 0, 0, 255, 0, 255, 0, 255));
+			g.fillRoundRect(24, 32, 16, 5, 2, 2);
+			// Head
+			g.setColor(rndPxl(255, 0, 245, 10, 120, 20, 60, 60));
+			g.fillOval(28, 28, 8, 8);
+
+			break;
+		case Main.IMG_KILLED_PEDESTRIAN: {
+			g.translate(Main.TILE / 2, Main.TILE / 2);
+			g.rotate((random.nextDouble() - 1) * 2 * Math.PI);
+			g.translate(-Main.TILE / 2, -Main.TILE / 2);
+
+			// Neck
+			g.setColor(rndPxl(255, 0, 245, 10, 200, 10, 185, 15));
+			g.setStroke(new BasicStroke(3));
+			g.drawLine(19, 24, 19, 32);
+			// Head
+			g.setColor(rndPxl(255, 0, 245, 10, 120, 20, 60, 60));
+			g.fillOval(16, 16, 8, 8);
+			// Trunk
+			g.setColor(rndPxl(255, 0, 0, 255, 0, 255, 0, 255));
+			g.fillRoundRect(12, 25, 16, 24, 8, 8);
+
+			// Limbs
+			double xPos[] = new double[4];
+			double yPos[] = new double[4];
+			for (int i = 0; i < 4; i++) {
+				// Rotate the limb by random number of degrees and calculate its
+				// position
+				int r = random.nextInt(360);
+				xPos[i] = Math.sin(Math.toRadians(r)) * 12;
+				yPos[i] = Math.cos(Math.toRadians(r)) * 12;
+			}
+			g.setStroke(new BasicStroke(3));
+			g.setColor(rndPxl(255, 0, 245, 10, 200, 10, 185, 15));
+			// Left arm
+			g.drawLine(14, 27, 14 + (int) xPos[0], 27 + (int) yPos[0]);
+			// Right arm
+			g.drawLine(28, 27, 28 + (int) xPos[1], 27 + (int) yPos[1]);
+			// Left leg
+			g.drawLine(14, 48, 14 + (int) xPos[2], 48 + (int) yPos[2]);
+			// Right leg
+			g.drawLine(28, 48, 28 + (int) xPos[3], 48 + (int) yPos[3]);
+
+			break;
+		}
+		}
+
+		return img;
+	}
+
+	/**
+	 * Randomizes a pixel from the range A2-A1, R2-R1, etc. If "*2" parameter is
+	 * 0, the number isn't random, e.g. if A1 = 255, and A2 = 0, returned A
+	 * value is always 255.
+	 * <p>
+	 * <p>
+	 * Example:
+	 * <p>
+	 * <code>rndPxl(255, 0, 0, 30, 0, 50, 230, 25)</code>
+	 * <p>
+	 * Gives a pixel with following RGB values: A = 255; 0 < R < 30; 0 < G < 50;
+	 * 230 < B < 255 (230+25)
+	 * 
+	 * @param A1
+	 *            the starting value of the Alpha
+	 * @param A2
+	 *            the random range of the Alpha
+	 * @param R1
+	 *            the starting value of the Red
+	 * @param R2
+	 *            the random range of the Red
+	 * @param G1
+	 *            the starting value of the Green
+	 * @param G2
+	 *            the random range of the Green
+	 * @param B1
+	 *            the starting value of the Blue
+	 * @param B2
+	 *            the random range of the Blue
+	 * @return Object of the {@link Color} class.
+	 * @see Color
+	 * @see Random
+	 */
+	protected Color rndPxl(int A1, int A2, int R1, int R2, int G1, int G2,
+			int B1, int B2) {
+		return new Color(Texture.rndArgb(random, A1, A2, R1, R2, G1, G2, B1,
+				B2), true);
+	}
+
+	/**
+	 * Returns a {@link BufferedImage} that is compatible with the current
+	 * display settings.
+	 * <p>
+	 * When there's no display (<code>java.awt.headless=true</code>), a plain
+	 * <code>TYPE_INT_RGB</code> or <code>TYPE_INT_ARGB</code> image is
+	 * returned instead.
+	 * 
+	 * @param width
+	 *            the width of the image
+	 * @param height
+	 *            the height of the image
+	 * @param translucency
+	 *            the translucency of the image. It should be an integer from
+	 *            the {@link java.awt.Transparency} class.
+	 * @return The newly created, compatible BufferedImage.
+	 * @see GraphicsConfiguration#createCompatibleImage(int, int, int)
+	 */
+	protected static BufferedImage getCmptblImg(int width, int height,
+			int translucency) {
+		if (GraphicsEnvironment.isHeadless()) {
+			return new BufferedImage(width, height,
+					translucency == Transparency.OPAQUE ? BufferedImage.TYPE_INT_RGB
+							: BufferedImage.TYPE_INT_ARGB);
+		}
+		return GraphicsEnvironment.getLocalGraphicsEnvironment()
+				.getDefaultScreenDevice().getDefaultConfiguration()
+				.createCompatibleImage(width, height, translucency);
+	}
+}
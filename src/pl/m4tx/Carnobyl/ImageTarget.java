@@ -0,0 +1,66 @@
+/*
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ *  
+ *  (C) Copyright 2012 m4tx
+ *  http://www.m4tx.pl/
+ */
+
+package pl.m4tx.Carnobyl;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+
+/**
+ * Render target drawing on an offscreen image of the window size. It works
+ * without a display, e.g. with <code>-Djava.awt.headless=true</code>.
+ */
+public class ImageTarget implements RenderTarget {
+	protected final BufferedImage image;
+
+	/**
+	 * Creates a new target, with an opaque image.
+	 */
+	public ImageTarget() {
+		image = new BufferedImage(Main.W, Main.H, BufferedImage.TYPE_INT_RGB);
+	}
+
+	@Override
+	public Graphics2D getGraphics() {
+		return image.createGraphics();
+	}
+
+	/**
+	 * Does nothing, the frame is already in the {@link #image}.
+	 */
+	@Override
+	public void show() {
+	}
+
+	/**
+	 * Does nothing, there's nothing to synchronize with.
+	 */
+	@Override
+	public void sync() {
+	}
+
+	/**
+	 * Returns the image the frames are drawn on.
+	 *
+	 * @return The image.
+	 */
+	public BufferedImage getImage() {
+		return image;
+	}
+}
@@ -0,0 +1,311 @@
+/*
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ *  
+ *  (C) Copyright 2012 m4tx
+ *  http://www.m4tx.pl/
+ */
+
+package pl.m4tx.Carnobyl;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Recording of a game: parameters of the {@link Simulation} and the inputs
+ * of all its ticks.
+ * <p>
+ * The simulation is deterministic, so running the recorded inputs through
+ * a new simulation with the same parameters gives exactly the same game.
+ * <p>
+ * The file format (big-endian): magic number, {@link #FORMAT}, seed, map
+ * size, number of pedestrians, the streaming mode flag (a byte, since format
+ * 2), and then the inputs, run-length encoded:
+ * the <code>INPUT_*</code> flags as a byte, followed by the number of the
+ * consecutive ticks with these flags, as a variable-length integer (7 bits
+ * per byte, the lowest first, the highest bit set if more bytes follow). A
+ * recording cut in the middle (e.g. when the game was killed) is still valid
+ * up to the last complete run.
+ */
+public class InputLog {
+	/**
+	 * Magic number at the beginning of every file ("C64R").
+	 */
+	protected final static int MAGIC = 0x43363452;
+	/**
+	 * Version of the file format.
+	 */
+	protected final static int FORMAT = 2;
+
+	/**
+	 * Parameters of the simulation, see
+	 * {@link Simulation#Simulation(long, int, int, boolean)}.
+	 */
+	protected final long seed;
+	protected final int size, pedestrians;
+	protected final boolean streaming;
+
+	/**
+	 * Recorded runs: the inputs and the number of the ticks.
+	 */
+	protected byte[] runInputs = new byte[64];
+	protected int[] runTicks = new int[64];
+	protected int runs = 0;
+	protected long ticks = 0;
+	/**
+	 * Position of {@link #replay(Simulation, int)} in the recording: the run
+	 * and the number of its ticks already replayed.
+	 */
+	protected int nextRun = 0, nextTick = 0;
+
+	/**
+	 * Output of the recording, <code>null</code> if it's not being recorded
+	 * to a file.
+	 */
+	protected DataOutputStream out;
+
+	/**
+	 * Creates a new, empty recording.
+	 *
+	 * @param seed
+	 *            seed of the simulation
+	 * @param size
+	 *            size of the map
+	 * @param pedestrians
+	 *            number of the pedestrians
+	 * @param streaming
+	 *            if <code>true</code>, the simulation uses the streaming world
+	 */
+	public InputLog(long seed, int size, int pedestrians, boolean streaming) {
+		this.seed = seed;
+		this.size = size;
+		this.pedestrians = pedestrians;
+		this.streaming = streaming;
+	}
+
+	/**
+	 * Creates a new simulation, with the parameters of the recording.
+	 *
+	 * @return The simulation.
+	 */
+	public Simulation createSimulation() {
+		return new Simulation(seed, size, pedestrians, streaming);
+	}
+
+	/**
+	 * Starts writing the recording to a file. All the ticks recorded from
+	 * now on are written to the file, until {@link #close()} is called.
+	 *
+	 * @param file
+	 *            the file
+	 * @throws IOException
+	 *             if the file cannot be written
+	 */
+	public synchronized void writeTo(File file) throws IOException {
+		out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(file)));
+		out.writeInt(MAGIC);
+		out.writeInt(FORMAT);
+		out.writeLong(seed);
+		out.writeInt(size);
+		out.writeInt(pedestrians);
+		out.writeBoolean(streaming);
+	}
+
+	/**
+	 * Records the inputs of the next tick. If the recording cannot be written
+	 * to the file, the error is logged and the file is closed.
+	 *
+	 * @param inputs
+	 *            the <code>INPUT_*</code> flags
+	 */
+	public synchronized void record(int inputs) {
+		ticks++;
+		if (runs > 0 && runInputs[runs - 1] == (byte) inputs
+				&& runTicks[runs - 1] < Integer.MAX_VALUE) {
+			runTicks[runs - 1]++;
+			return;
+		}
+		if (runs > 0 && out != null) {
+			try {
+				writeRun(runs - 1);
+			} catch (IOException e) {
+				Logger.getLogger(InputLog.class.getName()).log(Level.SEVERE,
+						"Cannot write the recording", e);
+				try {
+					out.close();
+				} catch (IOException e2) {
+					// Already failed
+				}
+				out = null;
+			}
+		}
+		if (runs == runInputs.length) {
+			runInputs = Arrays.copyOf(runInputs, runs * 2);
+			runTicks = Arrays.copyOf(runTicks, runs * 2);
+		}
+		runInputs[runs] = (byte) inputs;
+		runTicks[runs] = 1;
+		runs++;
+	}
+
+	/**
+	 * Writes a run to the file.
+	 *
+	 * @param run
+	 *            index of the run
+	 * @throws IOException
+	 *             if the run cannot be written
+	 */
+	protected void writeRun(int run) throws IOException {
+		out.writeByte(runInputs[run]);
+		int n = runTicks[run];
+		while ((n & ~0x7f) != 0) {
+			out.writeByte((n & 0x7f) | 0x80);
+			n >>>= 7;
+		}
+		out.writeByte(n);
+	}
+
+	/**
+	 * Writes the last run and closes the file. Nothing happens if the
+	 * recording isn't written to a file.
+	 *
+	 * @throws IOException
+	 *             if the file cannot be written
+	 */
+	public synchronized void close() throws IOException {
+		if (out != null) {
+			if (runs > 0) {
+				writeRun(runs - 1);
+			}
+			out.close();
+			out = null;
+		}
+	}
+
+	/**
+	 * Reads a recording from a file.
+	 *
+	 * @param file
+	 *            the file
+	 * @return The recording.
+	 * @throws IOException
+	 *             if the file cannot be read, or it's not a recording
+	 */
+	public static InputLog read(File file) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(
+				new FileInputStream(file)));
+		try {
+			if (in.readInt() != MAGIC) {
+				throw new IOException("Not a recording: " + file);
+			}
+			int format = in.readInt();
+			if (format < 1 || format > FORMAT) {
+				throw new IOException("Unknown format of the recording: "
+						+ file);
+			}
+			long seed = in.readLong();
+			int size = in.readInt(), pedestrians = in.readInt();
+			// Format 1 didn't have the streaming mode
+			boolean streaming = (format >= 2 && in.readBoolean());
+			InputLog log = new InputLog(seed, size, pedestrians, streaming);
+			while (true) {
+				int inputs = in.read();
+				if (inputs < 0) {
+					break;
+				}
+				int n = 0;
+				try {
+					for (int shift = 0;; shift += 7) {
+						int b = in.readUnsignedByte();
+						n |= (b & 0x7f) << shift;
+						if ((b & 0x80) == 0) {
+							break;
+						}
+					}
+				} catch (EOFException e) {
+					// A cut run, ignore it
+					break;
+				}
+				for (int i = 0; i < n; i++) {
+					log.record(inputs);
+				}
+			}
+			return log;
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Runs all the recorded ticks through the simulation.
+	 *
+	 * @param sim
+	 *            the simulation, created by {@link #createSimulation()}
+	 */
+	public void replay(Simulation sim) {
+		for (int run = 0; run < runs; run++) {
+			int inputs = runInputs[run];
+			for (int i = runTicks[run]; i > 0; i--) {
+				sim.tick(inputs);
+			}
+		}
+	}
+
+	/**
+	 * Runs the next recorded ticks through the simulation, from where the
+	 * previous call of this method ended.
+	 *
+	 * @param sim
+	 *            the simulation, created by {@link #createSimulation()}
+	 * @param count
+	 *            number of the ticks
+	 * @return Number of the ticks run, less than <code>count</code> if the
+	 *         recording ended.
+	 */
+	public int replay(Simulation sim, int count) {
+		int done = 0;
+		while (done < count && nextRun < runs) {
+			if (nextTick == runTicks[nextRun]) {
+				nextRun++;
+				nextTick = 0;
+				continue;
+			}
+			sim.tick(runInputs[nextRun]);
+			nextTick++;
+			done++;
+		}
+		return done;
+	}
+
+	/**
+	 * Returns the number of the recorded ticks.
+	 *
+	 * @return Number of the ticks.
+	 */
+	public long getTicks() {
+		return ticks;
+	}
+}
@@ -0,0 +1,98 @@
+/*
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ *  
+ *  (C) Copyright 2012 m4tx
+ *  http://www.m4tx.pl/
+ */
+
+package pl.m4tx.Carnobyl;
+
+import java.awt.event.KeyEvent;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Currently pressed keys, as the <code>Simulation.INPUT_*</code> flags.
+ * <p>
+ * The keys are pressed and released by the event dispatch thread, and read
+ * by the game loop, so the flags are kept in a single atomic integer: no
+ * locks, and every read gives a consistent snapshot of all the keys.
+ */
+public class InputState {
+	protected final AtomicInteger flags = new AtomicInteger();
+
+	/**
+	 * Returns the input flag of the key.
+	 *
+	 * @param keyCode
+	 *            code of the key, one of the <code>KeyEvent.VK_*</code>
+	 *            constants
+	 * @return The flag, or 0 if the key isn't bound.
+	 */
+	protected static int getFlag(int keyCode) {
+		switch (keyCode) {
+		case KeyEvent.VK_W:
+			return Simulation.INPUT_ACCELERATE;
+		case KeyEvent.VK_S:
+			return Simulation.INPUT_BRAKE;
+		case KeyEvent.VK_A:
+			return Simulation.INPUT_LEFT;
+		case KeyEvent.VK_D:
+			return Simulation.INPUT_RIGHT;
+		default:
+			return 0;
+		}
+	}
+
+	/**
+	 * Marks the key as pressed.
+	 *
+	 * @param keyCode
+	 *            code of the key
+	 */
+	public void press(int keyCode) {
+		int flag = getFlag(keyCode);
+		if (flag != 0) {
+			int old;
+			do {
+				old = flags.get();
+			} while (!flags.compareAndSet(old, old | flag));
+		}
+	}
+
+	/**
+	 * Marks the key as released.
+	 *
+	 * @param keyCode
+	 *            code of the key
+	 */
+	public void release(int keyCode) {
+		int flag = getFlag(keyCode);
+		if (flag != 0) {
+			int old;
+			do {
+				old = flags.get();
+			} while (!flags.compareAndSet(old, old & ~flag));
+		}
+	}
+
+	/**
+	 * Returns the currently pressed keys.
+	 *
+	 * @return Combination of the <code>Simulation.INPUT_*</code> flags.
+	 */
+	public int snapshot() {
+		return flags.get();
+	}
+}
@@ -19,36 +19,13 @@
 
 package pl.m4tx.Carnobyl;
 
-import java.awt.BasicStroke;
-import java.awt.Color;
-import java.awt.Font;
-import java.awt.Graphics;
 import java.awt.Graphics2D;
-import java.awt.GraphicsConfiguration;
 import java.awt.GraphicsEnvironment;
 import java.awt.GridLayout;
-import java.awt.Image;
-import java.awt.Rectangle;
-import java.awt.RenderingHints;
-import java.awt.Shape;
-import java.awt.Toolkit;
-import java.awt.Transparency;
 import java.awt.event.KeyEvent;
 import java.awt.event.KeyListener;
-import java.awt.font.FontRenderContext;
-import java.awt.font.TextLayout;
-import java.awt.geom.AffineTransform;
-import java.awt.geom.Arc2D;
-import java.awt.geom.Area;
-import java.awt.geom.Ellipse2D;
-import java.awt.geom.GeneralPath;
-import java.awt.geom.Rectangle2D;
-import java.awt.image.BufferStrategy;
-import java.awt.image.BufferedImage;
-import java.util.ArrayList;
-import java.util.HashSet;
-import java.util.Random;
-import java.util.Set;
+import java.io.File;
+import java.io.IOException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -64,49 +41,45 @@ public class Main extends JFrame implements Runnable, KeyListener {
 	 * Size of the window.
 	 */
 	protected final static int W = 800, H = 600;
-	/**
-	 * Max speed of the car.
-	 */
-	protected final double MAX_SPEED = 600;
 
-	protected int carX = 0, carY = 0, carPosX, carPosY, killed = 0, total = 0;
-	protected String gameOverTitile = null, gameOverDesc = null;
-
-	protected Image carImg, grassImg, checkedImg;
 	/**
-	 * Some images shown on the map.
+	 * Game logic, advanced by the simulation thread, and the renderer of its
+	 * state, used by the render thread.
 	 */
-	protected Image[] pedestrian, killedPedestrian, blood, road;
+	protected Simulation sim;
+	protected Renderer renderer;
 	/**
-	 * Background image.
+	 * The window's back buffer, the frames are drawn on.
 	 */
-	protected BufferedImage back;
+	protected RenderTarget target;
 	/**
-	 * Container contains list of the pedestrians.
-	 * <p>
-	 * It contains list of <code>int[]</code> objects, which has got the
-	 * following format:<br>
-	 * <code>{x, y, id, killed[, blood id]}</code><br>
-	 * id = id of the {@link #pedestrian} image<br>
-	 * killed = 0 means alive, 1 means killed<br>
-	 * blood id = optional. Id of the {@link #blood} image.
+	 * Passes the snapshots of the simulation state between the threads.
 	 */
-	protected ArrayList<int[]> pedestrians;
+	protected final SnapshotExchange exchange = new SnapshotExchange();
 
 	/**
 	 * Currently pressed keys.
-	 * <p>
-	 * Example code that checks if "W" key is pressed:
-	 * <code>pressed.contains(KeyEvent.VK_W)</code>
-	 * 
-	 * @see KeyEvent
 	 */
-	protected Set<Integer> pressed;
+	protected final InputState input = new InputState();
+	/**
+	 * Measures the phases of the frames.
+	 */
+	protected final Profiler profiler = new Profiler();
+	/**
+	 * If <code>true</code>, F3 is held down. A held key repeats
+	 * {@link #keyPressed(KeyEvent)}, and the overlay is toggled only by the
+	 * first one.
+	 */
+	protected boolean profileKeyDown = false;
+	/**
+	 * Chooses the quality of the rendering.
+	 */
+	protected QualityGovernor governor;
 
 	/**
-	 * Array contains the tile map.
+	 * Command line options.
 	 */
-	protected int[][] map;
+	protected Options options;
 
 	/**
 	 * Main method of the application.
@@ -115,17 +88,247 @@ public class Main extends JFrame implements Runnable, KeyListener {
 	 *            arguments
 	 */
 	public static void main(final String[] args) {
+		Options options = new Options(args);
+		if (options.verifyAssets) {
+			System.exit(verifyAssets(options) ? 0 : 1);
+		}
+		if (options.dumpAtlas != null) {
+			System.exit(dumpAtlas(options) ? 0 : 1);
+		}
+		if (options.renderFrames > 0) {
+			System.exit(renderFrames(options) ? 0 : 1);
+		}
+		if (options.replay != null) {
+			System.exit(replay(options) ? 0 : 1);
+		}
+
 		final Main m = new Main();
-		m.start(args);
+		m.start(options);
+	}
+
+	/**
+	 * Checks if the images generated by a single thread are identical to the
+	 * ones generated by {@link Options#threads} threads, and prints the
+	 * result.
+	 * 
+	 * @param options
+	 *            the options
+	 * @return <code>true</code> if the images are identical.
+	 */
+	protected static boolean verifyAssets(Options options) {
+		Assets serial = Assets.generate(options.seed, 1);
+		Assets parallel = Assets.generate(options.seed, options.threads);
+		boolean equal = serial.pixelsEqual(parallel);
+		System.out.println("Images for seed " + options.seed
+				+ " generated by 1 and " + options.threads + " threads are "
+				+ (equal ? "identical" : "DIFFERENT"));
+		return equal;
+	}
+
+	/**
+	 * Saves the sprite atlas of {@link Options#seed} to
+	 * {@link Options#dumpAtlas}.
+	 * 
+	 * @param options
+	 *            the options
+	 * @return <code>true</code> if the atlas was saved.
+	 */
+	protected static boolean dumpAtlas(Options options) {
+		Atlas atlas = new Atlas(Assets.generate(options.seed, options.threads));
+		try {
+			atlas.dump(options.dumpAtlas);
+		} catch (IOException e) {
+			Logger.getLogger(Main.class.getName()).log(Level.SEVERE, null, e);
+			return false;
+		}
+		System.out.println("Atlas for seed " + options.seed + " ("
+				+ atlas.image.getWidth() + "x" + atlas.image.getHeight()
+				+ ", " + atlas.id.length + " sprites) saved to "
+				+ options.dumpAtlas);
+		return true;
+	}
+
+	/**
+	 * Runs the recording {@link Options#replay} through a new simulation, as
+	 * fast as possible, and prints the final state.
+	 * 
+	 * @param options
+	 *            the options
+	 * @return <code>true</code> if the recording was replayed.
+	 */
+	protected static boolean replay(Options options) {
+		InputLog log;
+		try {
+			log = InputLog.read(options.replay);
+		} catch (IOException e) {
+			Logger.getLogger(Main.class.getName()).log(Level.SEVERE, null, e);
+			return false;
+		}
+		Simulation sim = log.createSimulation();
+		printWorld(sim);
+		long start = System.nanoTime();
+		log.replay(sim);
+		long nanos = System.nanoTime() - start;
+
+		System.out.println(String.format("Replayed %d ticks (%.1f s of the "
+				+ "game) in %.1f ms, %.0f ticks/s", log.getTicks(),
+				(double) log.getTicks() / Simulation.TICKS_PER_SECOND,
+				nanos / 1e6, log.getTicks() * 1e9 / Math.max(nanos, 1)));
+		System.out.println("Seed: " + log.seed);
+		System.out.println("Killed: " + sim.killed + " / " + sim.total);
+		System.out.println(String.format("Car: x %.3f, y %.3f, rotation "
+				+ "%.5f, speed %.3f", sim.carX, sim.carY, sim.rotation,
+				sim.speed));
+		System.out.println(String.format("Time left: %.3f s", sim.time));
+		System.out.println("End: " + getEndReasonName(sim.endReason));
+		System.out.println(String.format("State hash: %016x",
+				sim.getStateHash()));
+		if (sim.world != null) {
+			System.out.println(String.format("World: %d chunks generated, %d "
+					+ "kept, %.1f KB", sim.world.generated, sim.world.chunks
+					.size(), sim.world.getMemoryBytes() / 1024.0));
+		}
+		return true;
+	}
+
+	/**
+	 * Renders {@link Options#renderFrames} frames into an offscreen image,
+	 * following the recording {@link Options#replay} or a camera path, and
+	 * prints the frame rate. The frames are saved to
+	 * {@link Options#dumpFrames}, if given.
+	 *
+	 * @param options
+	 *            the options
+	 * @return <code>true</code> if the frames were rendered.
+	 */
+	protected static boolean renderFrames(Options options) {
+		// No window is needed, unless it's explicitly requested
+		if (System.getProperty("java.awt.headless") == null) {
+			System.setProperty("java.awt.headless", "true");
+		}
+		InputLog log;
+		if (options.replay != null) {
+			try {
+				log = InputLog.read(options.replay);
+			} catch (IOException e) {
+				Logger.getLogger(Main.class.getName()).log(Level.SEVERE, null,
+						e);
+				return false;
+			}
+		} else {
+			log = new InputLog(options.seed, options.size, options.pedestrians,
+					options.streaming);
+		}
+		Simulation sim = log.createSimulation();
+		printWorld(sim);
+		BatchRenderer batch = new BatchRenderer(createRenderer(options,
+				log.seed, new QualityGovernor(options)), options.dumpFrames);
+		int ticksPerFrame = (options.fps > 0 ? Math.max(
+				Simulation.TICKS_PER_SECOND / options.fps, 1) : 1);
+
+		long start = System.nanoTime();
+		try {
+			if (options.replay != null) {
+				batch.renderReplay(sim, log, options.renderFrames,
+						ticksPerFrame);
+			} else {
+				batch.renderPath(sim, options.renderFrames, ticksPerFrame);
+			}
+		} catch (IOException e) {
+			Logger.getLogger(Main.class.getName()).log(Level.SEVERE,
+					"Cannot save the frame", e);
+			return false;
+		}
+		long nanos = System.nanoTime() - start;
+
+		System.out.println("Rendered " + batch + " ("
+				+ (options.replay != null ? "replay" : "camera path")
+				+ ", headless: " + GraphicsEnvironment.isHeadless() + ")");
+		System.out.println(String.format("Whole batch, with the simulation%s: "
+				+ "%.1f ms", options.dumpFrames != null ? " and the saving"
+				: "", nanos / 1e6));
+		return true;
+	}
+
+	/**
+	 * Creates a renderer configured by the options, with the images of given
+	 * seed, and the current quality of the governor.
+	 *
+	 * @param options
+	 *            the options
+	 * @param seed
+	 *            seed of the images
+	 * @param governor
+	 *            the quality governor
+	 * @return The renderer.
+	 */
+	protected static Renderer createRenderer(Options options, long seed,
+			QualityGovernor governor) {
+		Assets assets;
+		if (options.assetCache == null) {
+			assets = Assets.generate(seed, options.threads);
+		} else {
+			assets = new AssetCache(options.assetCache).get(seed,
+					options.threads);
+		}
+		Renderer renderer = (options.softwareRenderer ? new SoftwareRenderer(
+				assets) : new Renderer(assets));
+		renderer.mapCacheBudget = options.mapCacheBudget;
+		renderer.carHeadings = options.carHeadings;
+		renderer.interpolate = options.interpolate;
+		governor.apply(renderer);
+		return renderer;
+	}
+
+	/**
+	 * Prints the size of the world of a simulation, and the time and memory
+	 * it took to generate it.
+	 * 
+	 * @param sim
+	 *            the simulation
+	 */
+	protected static void printWorld(Simulation sim) {
+		if (sim.world != null) {
+			System.out.println(String.format("World: streaming, %s, %d "
+					+ "pedestrians per chunk, prepared in %.1f ms",
+					sim.size > 0 ? sim.size + " blocks" : "unbounded",
+					sim.world.pedestrianCount, sim.generationNanos / 1e6));
+			return;
+		}
+		System.out.println(String.format("World: %d blocks (%dx%d cells), "
+				+ "%d pedestrians, generated in %.1f ms, %.1f MB", sim.size,
+				sim.map.length, sim.map.length, sim.total,
+				sim.generationNanos / 1e6,
+				sim.getMemoryBytes() / (1024.0 * 1024.0)));
+	}
+
+	/**
+	 * Returns the name of the reason of the game over.
+	 * 
+	 * @param endReason
+	 *            one of the <code>Simulation.END_*</code> constants
+	 * @return The name.
+	 */
+	protected static String getEndReasonName(int endReason) {
+		switch (endReason) {
+		case Simulation.END_TIMEOUT:
+			return "timeout";
+		case Simulation.END_CRASH:
+			return "crash";
+		case Simulation.END_ALL_KILLED:
+			return "all killed";
+		default:
+			return "none (still playing)";
+		}
 	}
 
 	/**
 	 * "Second" main method of the game, invoked by {@link #main(String[])}.
 	 * 
-	 * @param args
-	 *            arguments
+	 * @param options
+	 *            the options
 	 */
-	public void start(final String args[]) {
+	public void start(final Options options) {
 		setTitle(name);
 		setLayout(new GridLayout(1, 0));
 		setDefaultCloseOperation(EXIT_ON_CLOSE);
@@ -134,103 +337,90 @@ public class Main extends JFrame implements Runnable, KeyListener {
 		setLocationRelativeTo(null);
 		setResizable(false);
 
-		pressed = new HashSet<Integer>();
 		addKeyListener(this);
 
 		setVisible(true);
 
-		long seed;
-		if (args.length == 2 && args[0].equals("--seed")) {
-			seed = Long.parseLong(args[1]);
-		} else {
-			seed = System.currentTimeMillis();
-		}
-		this.seed = seed;
-		random.setSeed(seed);
-
-		carPosX = W / 2 - 32;
-		carPosY = H / 2 - 64;
-
-		grassImg = getImage(IMG_GRASS);
-		checkedImg = getImage(IMG_CHECKERED);
-		back = getCmptblImg(W + 64, H + 64, Transparency.OPAQUE);
-		Graphics backG = back.getGraphics();
-		for (int x = 0; x < (W + 128) / 64; x++) {
-			for (int y = 0; y < (H + 128) / 64; y++) {
-				backG.drawImage(grassImg, x * 64, y * 64, 64, 64, null);
-			}
-		}
-		createCar();
-		pedestrian = new Image[20];
-		killedPedestrian = new Image[20];
-		blood = new Image[20];
-		for (int i = 0; i < 20; i++) {
-			pedestrian[i] = getImage(IMG_PEDESTRIAN);
-			killedPedestrian[i] = getImage(IMG_KILLED_PEDESTRIAN);
-			blood[i] = getImage(IMG_BLOOD);
-		}
-		road = new Image[IMG_BUILDING - 150];
-		for (int i = 151; i <= IMG_BUILDING; i++) {
-			road[i - 151] = getImage(i);
-		}
-		pedestrians = new ArrayList<int[]>();
-
-		//
-		// Generating map
-		//
-		int size = random.nextInt(3) + 1;
-		map = new int[size * 4 + 22][size * 4 + 22];
-
-		for (int x = 0; x < map.length; x++) {
-			for (int y = 0; y < map.length; y++) {
-				if (x == 0 || y == 0 || x == map.length - 1
-						|| y == map.length - 1) {
-					map[x][y] = IMG_LEVEL_END;
-				} else {
-					map[x][y] = -1;
-				}
-			}
-		}
-		for (int x = 0; x < size; x++) {
-			for (int y = 0; y < size; y++) {
-				int tileX = 11 + x * 3, tileY = 11 + y * 3;
-				for (int x2 = (x == 0 ? 0 : 1); x2 < tile[0].length; x2++) {
-					for (int y2 = (y == 0 ? 0 : 1); y2 < tile.length; y2++) {
-						map[tileX + x2][tileY + y2] = tile[x2][y2];
-					}
-				}
-			}
+		this.options = options;
+		seed = options.seed;
+
+		governor = new QualityGovernor(options);
+		renderer = createRenderer(options, seed, governor);
+		renderer.profiler = profiler;
+		profiler.overlay = options.profile;
+		profiler.quality = governor.toString();
+		InputLog log = new InputLog(seed, options.size, options.pedestrians,
+				options.streaming);
+		sim = log.createSimulation();
+		printWorld(sim);
+		if (options.record != null) {
+			startRecording(log, options.record);
 		}
 
-		int x, y;
-		for (int i = 0; i < size * 20; i++) {
-			do {
-				y = x = 8 * 128 + 50;
-				x += random.nextInt(size * 128 * 4 + 100);
-				y += random.nextInt(size * 128 * 4 + 100);
-			} while (map[x / 128][y / 128] == IMG_BUILDING);
+		createBufferStrategy(2);
+		target = new WindowTarget(getBufferStrategy());
 
-			pedestrians.add(new int[] { x, y,
-					random.nextInt(pedestrian.length), 0 });
-		}
-		total = size * 20;
-		//
-		//
-		//
+		// The renderer needs a snapshot from the first frame
+		exchange.getBack().capture(sim);
+		exchange.publish();
 
-		createBufferStrategy(2);
+		new Thread(new Runnable() {
+			@Override
+			public void run() {
+				simulate();
+			}
+		}, "Simulation").start();
+		new Thread(this, "Render").start();
+	}
 
-		new Thread(this).start();
+	/**
+	 * Starts recording the inputs of the {@link #sim} to a file. The file is
+	 * closed when the game exits.
+	 * 
+	 * @param log
+	 *            the recording, with the parameters of the simulation
+	 * @param file
+	 *            the file
+	 */
+	protected void startRecording(final InputLog log, File file) {
+		try {
+			log.writeTo(file);
+		} catch (IOException e) {
+			Logger.getLogger(getClass().getName()).log(Level.SEVERE,
+					"Cannot record the game", e);
+			return;
+		}
+		sim.recording = log;
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			@Override
+			public void run() {
+				try {
+					log.close();
+				} catch (IOException e) {
+					Logger.getLogger(Main.class.getName()).log(Level.SEVERE,
+							"Cannot record the game", e);
+				}
+			}
+		});
 	}
 
 	@Override
-	public synchronized void keyPressed(KeyEvent e) {
-		pressed.add(e.getKeyCode());
+	public void keyPressed(KeyEvent e) {
+		if (e.getKeyCode() == KeyEvent.VK_F3) {
+			if (!profileKeyDown) {
+				profiler.toggleOverlay();
+			}
+			profileKeyDown = true;
+		}
+		input.press(e.getKeyCode());
 	}
 
 	@Override
-	public synchronized void keyReleased(KeyEvent e) {
-		pressed.remove(e.getKeyCode());
+	public void keyReleased(KeyEvent e) {
+		if (e.getKeyCode() == KeyEvent.VK_F3) {
+			profileKeyDown = false;
+		}
+		input.release(e.getKeyCode());
 	}
 
 	@Override
@@ -238,284 +428,81 @@ public class Main extends JFrame implements Runnable, KeyListener {
 	}
 
 	/**
-	 * Main loop.
+	 * Loop of the simulation thread: advances the simulation once per tick,
+	 * and publishes a snapshot of its state after every step.
+	 */
+	protected void simulate() {
+		FrameScheduler scheduler = new FrameScheduler(
+				Simulation.TICKS_PER_SECOND);
+		long nanoTime = System.nanoTime(), lastNanoTime;
+		while (true) {
+			lastNanoTime = nanoTime;
+			nanoTime = System.nanoTime();
+			sim.step(input, nanoTime - lastNanoTime);
+
+			Snapshot s = exchange.getBack();
+			s.capture(sim);
+			s.stepNanos = System.nanoTime() - nanoTime;
+			exchange.publish();
+
+			scheduler.endFrame();
+		}
+	}
+
+	/**
+	 * Loop of the render thread: draws the latest snapshot of the simulation
+	 * in every frame.
 	 */
 	@Override
 	public void run() {
-		double fps = 0, now, tpf, speed = 0, velocityX = 0, rotation = 0, sleepTime, frameTime = System
-				.nanoTime() / 1000000, time = 60, gameOverTime = 0;
-		int camX = 0, camY = 0;
-		BufferStrategy bf = this.getBufferStrategy();
+		FrameScheduler scheduler = new FrameScheduler(options.fps);
 		Graphics2D g = null;
-		RenderingHints rh = new RenderingHints(RenderingHints.KEY_ANTIALIASING,
-				RenderingHints.VALUE_ANTIALIAS_ON);
-		rh.add(new RenderingHints(RenderingHints.KEY_RENDERING,
-				RenderingHints.VALUE_RENDER_QUALITY));
-		Font fnt = new Font("SansSerif", Font.BOLD, W / 8);
-		FontRenderContext frc;
-		Rectangle2D car = new Rectangle2D.Float(carPosX + 8, carPosY + 8, 48,
-				112);
-		Shape transCar;
-		AffineTransform trans;
-
-		Font f = new Font("Serif", Font.BOLD, W / 10), f2 = new Font(
-				"SansSerif", Font.BOLD, W / 40);
-		TextLayout textTl;
-		Shape outline;
-		Rectangle r;
 		while (true) {
-			// TPF & FPS
-			now = System.nanoTime() / 1000000;
-			tpf = now - frameTime;
-			frameTime = now;
-			if (tpf != 0) {
-				fps = 1000 / tpf;
-			}
+			profiler.beginFrame();
 
-			//
-			// Calculations
-			//
-			time -= tpf / 1000;
-			if (time < 0) {
-				if (gameOverTitile == null) {
-					gameOverTitile = "BITCH, PLEASE";
-					gameOverDesc = "U WERE 2 SLOW!";
-				}
-			}
-
-			// Steering the car
-			if (!(pressed.contains(KeyEvent.VK_W) && pressed
-					.contains(KeyEvent.VK_S))) {
-				if (pressed.contains(KeyEvent.VK_W)) {
-					velocityX = Math.cos(speed / MAX_SPEED / 2 * Math.PI);
-				} else if (pressed.contains(KeyEvent.VK_S)) {
-					if (speed > 0) {
-						velocityX = -2;
-					} else {
-						velocityX = -Math.cos(speed / -MAX_SPEED / 2 * Math.PI) / 2;
-					}
-				} else {
-					if (speed < 0.05 && speed > -0.05) {
-						velocityX = 0;
-						speed = 0;
-					} else {
-						velocityX = (speed > 0 ? -0.1 : 0.1);
-					}
-				}
+			Snapshot s = exchange.acquire();
+			// A snapshot drawn again would count its simulation time twice
+			if (exchange.isFresh()) {
+				profiler.record(Profiler.SIMULATION, s.stepNanos);
 			}
-			speed += velocityX * tpf / 5;
-
-			if (!(pressed.contains(KeyEvent.VK_A) && pressed
-					.contains(KeyEvent.VK_D))) {
-				if (pressed.contains(KeyEvent.VK_A)) {
-					rotation -= Math.sin(tpf / 2000 * speed / MAX_SPEED
-							* Math.PI);
-				} else if (pressed.contains(KeyEvent.VK_D)) {
-					rotation += Math.sin(tpf / 2000 * speed / MAX_SPEED
-							* Math.PI);
-				}
-			}
-			while (rotation > 1) {
-				rotation -= 2;
-			}
-			while (rotation < -1) {
-				rotation += 2;
-			}
-
-			// Used in collision detecting
-			trans = new AffineTransform();
-			trans.rotate(rotation * Math.PI, carPosX + 32, carPosY + 64);
-			transCar = trans.createTransformedShape(car);
-
-			// VelocityX - velocity of the car on the X axis - that's why we add
-			// it to Y position.
-			carX += speed * tpf / 1000 * -Math.sin(rotation * Math.PI);
-			carY += speed * tpf / 1000 * Math.cos(rotation * Math.PI);
-
-			camX = carX - carPosX;
-			camY = carY - carPosY;
 
 			//
 			// Drawing
 			//
+			long renderStart = System.nanoTime(), renderNanos;
 			try {
-				g = (Graphics2D) bf.getDrawGraphics();
-
-				/*
-				 * Drawing background
-				 * 
-				 * To increase the rendering speed, the background is stored at
-				 * the first in 64x64 tiles, and then bundled into one width+64,
-				 * height+64 background image.
-				 * 
-				 * The game calculates this bundle's position on the screen by
-				 * the following way:
-				 * 
-				 * (camY < 0 ? 64 : 0) + (camY % 64) - 64
-				 * 
-				 * How it works? CamY is camera's position on the Y axis. 64 is
-				 * the tile size. If we'll modulo cam's pos by tile size, we'll
-				 * get the background translation on Y axis. But when user'll go
-				 * into negative values on Y axis, we'll also have to subtract
-				 * pos % 64 from 64. That's the whole trick.
-				 */
-				g.drawImage(back, (camX < 0 ? 64 : 0) + (camX % 64) - 64,
-						(camY < 0 ? 64 : 0) + (camY % 64) - 64, null);
-
-				g.setRenderingHints(rh);
-
-				// Render map
-				g.translate(camX, camY);
-				for (int x = -camX / ROAD - 1; x < (-camX + W) / ROAD + 1; x++) {
-					for (int y = -camY / ROAD - 1; y < (-camY + H) / ROAD + 1; y++) {
-						try {
-							if (map[x][y] != -1) {
-								g.drawImage(road[map[x][y] - 151], x * ROAD, y
-										* ROAD, null);
-							}
-							if ((map[x][y] == IMG_BUILDING || map[x][y] == IMG_LEVEL_END)
-									&& transCar.intersects(x * ROAD + camX, y
-											* ROAD + camY, ROAD, ROAD)) {
-								if (speed > 500) {
-									if (gameOverTitile == null) {
-										gameOverTitile = "BITCH, PLEASE";
-										gameOverDesc = "Y U BREAK UR CAR?!";
-									}
-								}
-								speed = -speed;
-							}
-						} catch (Exception e) {
-						}
-					}
-				}
-				// Render pedestrians
-				for (int i = 0; i < pedestrians.size(); i++) {
-					int[] ped = pedestrians.get(i);
-					if (ped[0] > -camX - 64 && ped[0] < -camX + W + 32
-							&& ped[1] > -camY - 64 && ped[1] < -camY + H + 32) {
-						if (ped[3] == 0) {
-							if (transCar.intersects(ped[0] + camX - 12, ped[1]
-									+ camY - 12, 24, 24)) {
-								pedestrians.remove(ped);
-								pedestrians
-										.add(new int[] { ped[0], ped[1],
-												ped[2], 1,
-												random.nextInt(blood.length) });
-								time += 1.5;
-								killed++;
-
-								if (killed == total) {
-									if (gameOverTitile == null) {
-										gameOverTitile = "CONGRATZ";
-										gameOverDesc = "U KILLED'EM'ALL! THX 4 PLAYIN'!";
-									}
-								}
-							}
-						}
-
-						if (ped[3] != 0) {
-							g.drawImage(blood[ped[4]], ped[0] - TILE / 2,
-									ped[1] - TILE / 2, null);
-						}
-						g.drawImage((ped[3] == 0 ? pedestrian
-								: killedPedestrian)[ped[2]], ped[0] - TILE / 2,
-								ped[1] - TILE / 2, null);
-					}
-				}
-				g.translate(-camX, -camY);
-
-				// Render car
-				g.translate(carPosX + 32, carPosY + 64);
-				g.rotate(rotation * Math.PI);
-				drawCar(g);
-				g.rotate(-rotation * Math.PI);
-				g.translate(-carPosX - 32, -carPosY - 64);
-
-				// Killed / total (pedestrians)
-				g.drawString(killed + " / " + total, 0, 10);
-
-				// Time limit
-				frc = g.getFontRenderContext();
-				textTl = new TextLayout(Integer.toString(Math
-						.max((int) time, 0)), fnt, frc);
-				outline = textTl.getOutline(null);
-				r = outline.getBounds();
-				int w = W / 2 - (r.width / 2);
-				int h = r.height;
-				g.translate(w, h);
-				g.setStroke(new BasicStroke(5));
-				g.setColor(Color.BLACK);
-				g.draw(outline);
-				g.setClip(outline);
-				g.drawImage(checkedImg, r.x, r.y, this);
-				g.translate(-w, -h);
-				g.setClip(null);
-
-				// Render "game over" screen
-				if (gameOverTitile != null) {
-					gameOverTime += tpf;
-					if (gameOverTime < 4000) {
-						g.setColor(new Color(0f, 0f, 0f,
-								(float) gameOverTime / 4000));
-						g.fillRect(0, 0, W, H);
-					} else {
-						g.setColor(new Color(0, 0, 0, 255));
-						g.fillRect(0, 0, W, H);
-
-						textTl = new TextLayout(gameOverTitile, f, frc);
-						outline = textTl.getOutline(null);
-						r = outline.getBounds();
-						int tw = W / 2 - (r.width / 2);
-						int th = H / 2 + (r.height / 2);
-						g.translate(tw, th);
-						g.setColor(Color.GRAY);
-						g.draw(outline);
-						g.setClip(outline);
-						g.drawImage(checkedImg, r.x, r.y, this);
-						g.translate(-tw, -th);
-						g.setClip(null);
-
-						textTl = new TextLayout(gameOverDesc, f2, frc);
-						outline = textTl.getOutline(null);
-						Rectangle r2 = outline.getBounds();
-						tw = W / 2 - (r2.width / 2);
-						th = H / 2 + (r2.height / 2) + r.height;
-						g.translate(tw, th);
-						g.setColor(Color.BLUE);
-						g.draw(outline);
-						g.setColor(Color.WHITE);
-						g.fill(outline);
-						g.translate(-tw, -th);
-
-						if (gameOverTime < 6000) {
-							g.setColor(new Color(0f, 0f, 0f,
-									(float) (1f - (gameOverTime - 4000) / 2000)));
-							g.fillRect(0, 0, W, H);
-						}
-					}
-				}
+				g = target.getGraphics();
+				renderer.render(g, s, s.getInterpolation(renderStart));
+				renderNanos = System.nanoTime() - renderStart;
 			} finally {
 				// It is best to dispose() a Graphics object when done with it.
 				g.dispose();
 			}
 
-			// Shows the contents of the backbuffer on the screen.
-			bf.show();
+			profiler.begin(Profiler.SHOW);
+			target.show();
+			profiler.end(Profiler.SHOW);
+
+			profiler.begin(Profiler.SYNC);
+			target.sync();
+			profiler.end(Profiler.SYNC);
 
-			// Tell the System to do the drawing now, otherwise it can take a
-			// few extra ms until drawing is done
-			Toolkit.getDefaultToolkit().sync();
+			// Quality for the next frames
+			if (governor.update(renderNanos)) {
+				governor.apply(renderer);
+				profiler.quality = governor.toString();
+			}
 
 			// Framerate limit
-			if (fps > 60) {
-				try {
-					sleepTime = (float) 1000 / (float) 60 - tpf;
-					Thread.sleep((long) sleepTime);
-				} catch (InterruptedException e) {
-					Logger.getLogger(getClass().getName()).log(Level.SEVERE,
-							null, e);
-				}
+			profiler.begin(Profiler.WAIT);
+			boolean stats = scheduler.endFrame();
+			profiler.end(Profiler.WAIT);
+			if (stats && options.frameStats) {
+				System.out.println(scheduler + ", " + exchange.getStats()
+						+ ", quality " + governor);
 			}
+
+			profiler.endFrame();
 		}
 	}
 
@@ -534,27 +521,10 @@ public class Main extends JFrame implements Runnable, KeyListener {
 	protected final static int IMG_BLOOD = 203;
 	protected final static int IMG_CHECKERED = 1;
 
-	/**
-	 * Single tile of the map.
-	 */
-	protected final static int tile[][] = {
-			{ -1, IMG_ROAD_END_UP, -1, -1, IMG_ROAD_END_UP, -1 },
-			{ IMG_ROAD_END_LEFT, IMG_ASPHALT, IMG_ROAD_HORI, IMG_ROAD_HORI,
-					IMG_ASPHALT, IMG_ROAD_END_RIGHT },
-			{ -1, IMG_ROAD_VERT, IMG_BUILDING, IMG_BUILDING, IMG_ROAD_VERT, -1 },
-			{ -1, IMG_ROAD_VERT, IMG_BUILDING, IMG_BUILDING, IMG_ROAD_VERT, -1 },
-			{ IMG_ROAD_END_LEFT, IMG_ASPHALT, IMG_ROAD_HORI, IMG_ROAD_HORI,
-					IMG_ASPHALT, IMG_ROAD_END_RIGHT },
-			{ -1, IMG_ROAD_END_DOWN, -1, -1, IMG_ROAD_END_DOWN, -1 } };
-
 	/**
 	 * Seed used by map and image generator.
 	 */
 	protected long seed = 1;
-	/**
-	 * Random number generator.
-	 */
-	protected Random random = new Random();
 
 	/**
 	 * Size of the most of the images.
@@ -564,401 +534,4 @@ public class Main extends JFrame implements Runnable, KeyListener {
 	 * Size of the road tile.
 	 */
 	protected final static int ROAD = 128;
-
-	/**
-	 * Generates an image.
-	 * 
-	 * @param image
-	 *            ID of the image specified by <code>IMG_*</code> static fields.
-	 * @return Generated image.
-	 */
-	protected Image getImage(int image) {
-		BufferedImage img = null;
-
-		if (image == IMG_CHECKERED) {
-			img = getCmptblImg(W, H, Transparency.OPAQUE);
-		} else if (image > 200) {
-			img = getCmptblImg(TILE, TILE, Transparency.TRANSLUCENT);
-		} else if (image > 150) {
-			img = getCmptblImg(ROAD, ROAD, Transparency.OPAQUE);
-		} else if (image > 100) {
-			img = getCmptblImg(TILE, TILE, Transparency.OPAQUE);
-		}
-		Graphics2D g = img.createGraphics();
-		g.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
-				RenderingHints.VALUE_ANTIALIAS_ON);
-
-		switch (image) {
-		case IMG_GRASS: {
-			for (int x = 0; x < TILE; x++) {
-				for (int y = 0; y < TILE; y++) {
-					img.setRGB(x, y, rndPxl(255, 0, 0, 25, 230, 25, 0, 25)
-							.getRGB());
-				}
-			}
-			break;
-		}
-		case IMG_ASPHALT: {
-			for (int x = 0; x < ROAD; x++) {
-				for (int y = 0; y < ROAD; y++) {
-					img.setRGB(
-							x,
-							y,
-							(random.nextInt(4) < 3 ? rndPxl(255, 0, 0, 40, 0,
-									40, 0, 40).getRGB() : rndPxl(255, 0, 80,
-									20, 80, 20, 80, 20).getRGB()));
-				}
-			}
-			break;
-		}
-		case IMG_ROAD_VERT:
-			g.rotate(Math.PI / 2);
-			g.translate(0, -ROAD);
-			g.drawImage(getImage(IMG_ROAD_HORI), 0, 0, null);
-			break;
-		case IMG_ROAD_HORI:
-			g.drawImage(getImage(IMG_ASPHALT), 0, 0, null);
-			g.setStroke(new BasicStroke(5));
-			g.setColor(rndPxl(255, 0, 245, 10, 245, 10, 245, 10));
-			g.drawLine(ROAD / 2, 32, ROAD / 2, ROAD - 32);
-			g.setColor(rndPxl(255, 0, 180, 20, 180, 20, 180, 20));
-			g.drawLine(0, 0, 0, ROAD);
-			g.drawLine(ROAD, 0, ROAD, ROAD);
-			break;
-		case IMG_ROAD_END_UP:
-			g.drawImage(getImage(IMG_ROAD_VERT), 0, 0, null);
-			g.setColor(rndPxl(255, 0, 180, 20, 180, 20, 180, 20));
-			g.setStroke(new BasicStroke(5));
-			g.drawLine(0, 0, ROAD, 0);
-			break;
-		case IMG_ROAD_END_DOWN:
-			g.rotate(Math.PI);
-			g.translate(-ROAD, -ROAD);
-			g.drawImage(getImage(IMG_ROAD_END_UP), 0, 0, null);
-			break;
-		case IMG_ROAD_END_LEFT:
-			g.rotate(-Math.PI / 2);
-			g.translate(-ROAD, 0);
-			g.drawImage(getImage(IMG_ROAD_END_UP), 0, 0, null);
-			break;
-		case IMG_ROAD_END_RIGHT:
-			g.rotate(Math.PI / 2);
-			g.translate(0, -ROAD);
-			g.drawImage(getImage(IMG_ROAD_END_UP), 0, 0, null);
-			break;
-		case IMG_LEVEL_END: {
-			int p1 = rndPxl(255, 0, 200, 20, 0, 10, 0, 10).getRGB();
-			int p2 = rndPxl(255, 0, 245, 10, 245, 10, 245, 10).getRGB();
-			for (int x = 0; x < ROAD; x++) {
-				for (int y = 0; y < ROAD; y++) {
-					img.setRGB(x, y, ((x + y) % 16 < 10 ? p1 : p2));
-				}
-			}
-			break;
-		}
-		case IMG_BUILDING:
-			for (int x = 0; x < ROAD; x++) {
-				for (int y = 0; y < ROAD; y++) {
-					img.setRGB(x, y, rndPxl(255, 0, 200, 20, 200, 20, 200, 20)
-							.getRGB());
-				}
-			}
-			g.setStroke(new BasicStroke(3));
-			g.setColor(rndPxl(255, 0, 100, 10, 100, 10, 100, 10));
-			g.drawLine(0, 0, 0, ROAD);
-			g.drawRect(0, 0, ROAD, ROAD);
-			break;
-		case IMG_CHECKERED: {
-			int p1 = rndPxl(255, 0, 170, 50, 0, 50, 0, 50).getRGB();
-			int p2 = rndPxl(255, 0, 205, 50, 205, 50, 205, 50).getRGB();
-			for (int x = 0; x < W; x++) {
-				for (int y = 0; y < H; y++) {
-					img.setRGB(
-							x,
-							y,
-							((((y % 20) > 10 ? x + 10 : x) % 20) < 10 ? p1 : p2));
-				}
-			}
-			break;
-		}
-		case IMG_BLOOD: {
-			// Puddles
-			int x, y, w;
-			for (int i = 0; i < 16; i++) {
-				x = random.nextInt(TILE);
-				y = random.nextInt(TILE);
-				w = random.nextInt(TILE / 2);
-				if ((x + w) > TILE) {
-					x -= x + w - TILE;
-				}
-				if ((y + w) > TILE) {
-					y -= y + w - TILE;
-				}
-				g.setColor(rndPxl(255, 0, 200, 10, 40, 10, 30, 20));
-				g.fillOval(x, y, w, w);
-			}
-			break;
-		}
-		case IMG_PEDESTRIAN:
-			g.translate(TILE / 2, TILE / 2);
-			g.rotate((random.nextDouble() - 1) * 2 * Math.PI);
-			g.translate(-TILE / 2, -TILE / 2);
-
-			// Trunk
-			g.setColor(rndPxl(255, 0, 0, 255, 0, 255, 0, 255));
-			g.fillRoundRect(24, 32, 16, 5, 2, 2);
-			// Head
-			g.setColor(rndPxl(255, 0, 245, 10, 120, 20, 60, 60));
-			g.fillOval(28, 28, 8, 8);
-
-			break;
-		case IMG_KILLED_PEDESTRIAN: {
-			g.translate(TILE / 2, TILE / 2);
-			g.rotate((random.nextDouble() - 1) * 2 * Math.PI);
-			g.translate(-TILE / 2, -TILE / 2);
-
-			// Neck
-			g.setColor(rndPxl(255, 0, 245, 10, 200, 10, 185, 15));
-			g.setStroke(new BasicStroke(3));
-			g.drawLine(19, 24, 19, 32);
-			// Head
-			g.setColor(rndPxl(255, 0, 245, 10, 120, 20, 60, 60));
-			g.fillOval(16, 16, 8, 8);
-			// Trunk
-			g.setColor(rndPxl(255, 0, 0, 255, 0, 255, 0, 255));
-			g.fillRoundRect(12, 25, 16, 24, 8, 8);
-
-			// Limbs
-			double xPos[] = new double[4];
-			double yPos[] = new double[4];
-			for (int i = 0; i < 4; i++) {
-				// Rotate the limb by random number of degrees and calculate its
-				// position
-				int r = random.nextInt(360);
-				xPos[i] = Math.sin(Math.toRadians(r)) * 12;
-				yPos[i] = Math.cos(Math.toRadians(r)) * 12;
-			}
-			g.setStroke(new BasicStroke(3));
-			g.setColor(rndPxl(255, 0, 245, 10, 200, 10, 185, 15));
-			// Left arm
-			g.drawLine(14, 27, 14 + (int) xPos[0], 27 + (int) yPos[0]);
-			// Right arm
-			g.drawLine(28, 27, 28 + (int) xPos[1], 27 + (int) yPos[1]);
-			// Left leg
-			g.drawLine(14, 48, 14 + (int) xPos[2], 48 + (int) yPos[2]);
-			// Right leg
-			g.drawLine(28, 48, 28 + (int) xPos[3], 48 + (int) yPos[3]);
-
-			break;
-		}
-		}
-
-		return img;
-	}
-
-	/**
-	 * Color of the outline of the car.
-	 */
-	protected Color outline;
-	protected Area c, fwin, bwin, headlights, airInlet = null;
-	/**
-	 * Color of the car.
-	 */
-	protected int cr, cg, cb, avg;
-
-	/**
-	 * Generates a car.
-	 */
-	protected void createCar() {
-		Rectangle2D.Float rect = new Rectangle2D.Float();
-		Ellipse2D.Float ellipse = new Ellipse2D.Float();
-
-		//
-		// Car
-		//
-		rect.setFrame(8, 24, 48, 72);
-		c = new Area(rect);
-
-		// Front
-		ellipse.setFrame(6, 0, 52, 58);
-		c.add(new Area(ellipse));
-
-		// Back
-		ellipse.setFrame(6, 55, 52, 78);
-		rect.setFrame(0, 122, 64, 20);
-		Area tmp = new Area(ellipse);
-		tmp.subtract(new Area(rect));
-		c.add(tmp);
-		c.add(new Area(new Arc2D.Float(13, 112, 38, 15, 180, 180, Arc2D.PIE)));
-
-		// Mirrors
-		ellipse.setFrame(0, 44, 16, 8);
-		rect.setFrame(0, 48, 16, 4);
-		tmp = new Area(ellipse);
-		tmp.subtract(new Area(rect));
-		c.add(tmp);
-		ellipse.x = 48;
-		rect.x = 48;
-		tmp = new Area(ellipse);
-		tmp.subtract(new Area(rect));
-		c.add(tmp);
-
-		// Front window
-		fwin = new Area(new Arc2D.Float(8, 30, 48, 30, 40, 100, Arc2D.CHORD));
-		fwin.add(new Area(createTrapezoid(17, 35, 37, 30, 15, false)));
-
-		// Back window
-		bwin = new Area(new Arc2D.Float(20, 95, 24, 20, 180, 180, Arc2D.CHORD));
-		bwin.add(new Area(createTrapezoid(20, 95, 28, 24, 10, false)));
-
-		// Headlights
-		headlights = new Area(new Arc2D.Float(9, 0, 10, 10, 240, 130,
-				Arc2D.OPEN));
-		headlights.add(new Area(new Arc2D.Float(45, 0, 10, 10, 160, 130,
-				Arc2D.OPEN)));
-
-		// Air inlet
-		if ((seed & 0x01) == 1) {
-			airInlet = new Area(createTrapezoid(27.5f, 55, 10, 8, 5, true));
-		}
-
-		// "Randomize" car's color from the seed
-		cr = (int) (seed & 0xff);
-		cg = (int) ((seed & 0xff00) >> 8);
-		cb = (int) ((seed & 0xff0000) >> 16);
-		avg = ((cr + cg + cb) / 3);
-		// Outline of the car is white, when the car is dark
-		// ("average" color is under 128), and black if the car is
-		// bright.
-		outline = (avg < 128 ? Color.WHITE : Color.BLACK);
-	}
-
-	/**
-	 * Draws a car.
-	 * 
-	 * @param g
-	 *            a {@link Graphics2D} object.
-	 */
-	protected void drawCar(Graphics2D g) {
-		g.translate(-32, -64);
-
-		// Shape of the car
-		g.setStroke(new BasicStroke(3));
-		g.setColor(outline);
-		g.draw(c);
-
-		g.setColor(new Color(cr, cg, cb));
-		g.fill(c);
-
-		// Windows
-		g.setStroke(new BasicStroke(2, BasicStroke.CAP_ROUND,
-				BasicStroke.JOIN_ROUND));
-		g.setColor(outline);
-		g.draw(fwin);
-		g.draw(bwin);
-
-		// Others
-		g.draw(headlights);
-
-		if (airInlet != null) {
-			g.draw(airInlet);
-		}
-
-		g.translate(32, 64);
-	}
-
-	/**
-	 * Creates a trapezoid.
-	 * 
-	 * @param x
-	 *            position of the trapezoid on the X axis
-	 * @param y
-	 *            position of the trapezoid on the Y axis
-	 * @param a
-	 *            the top basis
-	 * @param b
-	 *            the bottom basis
-	 * @param h
-	 *            the height of the trapezoid
-	 * @return The newly created polygon - trapezoid.
-	 */
-	protected GeneralPath createTrapezoid(float x, float y, float a, float b,
-			float h, boolean close) {
-		float xPts[] = { x + (b - a) / 2, x, x + b, x + (b - a) / 2 + a };
-		float yPts[] = { y, y + h, y + h, y };
-		GeneralPath polygon = new GeneralPath(GeneralPath.WIND_EVEN_ODD,
-				xPts.length);
-		polygon.moveTo(xPts[0], yPts[0]);
-
-		for (int i = 1; i < xPts.length; i++) {
-			polygon.lineTo(xPts[i], yPts[i]);
-		}
-
-		if (close) {
-			polygon.closePath();
-		}
-
-		return polygon;
-	}
-
-	/**
-	 * Randomizes a pixel from the range A2-A1, R2-R1, etc. If "*2" parameter is
-	 * 0, the number isn't random, e.g. if A1 = 255, and A2 = 0, returned A
-	 * value is always 255.
-	 * <p>
-	 * <p>
-	 * Example:
-	 * <p>
-	 * <code>rndPxl(255, 0, 0, 30, 0, 50, 230, 25)</code>
-	 * <p>
-	 * Gives a pixel with following RGB values: A = 255; 0 < R < 30; 0 < G < 50;
-	 * 230 < B < 255 (230+25)
-	 * 
-	 * @param A1
-	 *            the starting value of the Alpha
-	 * @param A2
-	 *            the random range of the Alpha
-	 * @param R1
-	 *            the starting value of the Red
-	 * @param R2
-	 *            the random range of the Red
-	 * @param G1
-	 *            the starting value of the Green
-	 * @param G2
-	 *            the random range of the Green
-	 * @param B1
-	 *            the starting value of the Blue
-	 * @param B2
-	 *            the random range of the Blue
-	 * @return Object of the {@link Color} class.
-	 * @see Color
-	 * @see Random
-	 */
-	protected Color rndPxl(int A1, int A2, int R1, int R2, int G1, int G2,
-			int B1, int B2) {
-		return new Color((R2 == R1 ? 0 : R1 + random.nextInt(R2)),
-				(G2 == 0 ? G1 : G1 + random.nextInt(G2)), (B2 == 0 ? B1 : B1
-						+ random.nextInt(B2)), (A2 == 0 ? A1 : A1
-						+ random.nextInt(A2)));
-	}
-
-	/**
-	 * Returns a {@link BufferedImage} that is compatible with the current
-	 * display settings.
-	 * 
-	 * @param width
-	 *            the width of the image
-	 * @param height
-	 *            the height of the image
-	 * @param translucency
-	 *            the translucency of the image. It should be an integer from
-	 *            the {@link java.awt.Transparency} class.
-	 * @return The newly created, compatible BufferedImage.
-	 * @see GraphicsConfiguration#createCompatibleImage(int, int, int)
-	 */
-	protected BufferedImage getCmptblImg(int width, int height, int translucency) {
-		return GraphicsEnvironment.getLocalGraphicsEnvironment()
-				.getDefaultScreenDevice().getDefaultConfiguration()
-				.createCompatibleImage(width, height, translucency);
-	}
 }
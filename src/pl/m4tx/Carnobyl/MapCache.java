@@ -0,0 +1,399 @@
+/*
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ *  
+ *  (C) Copyright 2012 m4tx
+ *  http://www.m4tx.pl/
+ */
+
+package pl.m4tx.Carnobyl;
+
+import java.awt.Graphics2D;
+import java.awt.Image;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Cache of the pre-rendered map.
+ * <p>
+ * The map never changes after it's generated, so instead of drawing every
+ * visible road tile in every frame, the map is baked into {@link #CHUNK} x
+ * {@link #CHUNK} images (chunks), and only a few of them are drawn per frame.
+ * Chunks are baked lazily, when they become visible for the first time, and
+ * the least recently used ones are evicted when the cache exceeds its memory
+ * budget.
+ * <p>
+ * Chunks are opaque: the grass is baked under the empty cells, aligned the
+ * same way as the background drawn by the {@link Renderer}.
+ * <p>
+ * Killed pedestrians (the blood and the body) are baked into the chunks as
+ * well, as decals. A kill is drawn into the cached chunks once, by
+ * {@link #update(Snapshot)}, and chunks baked later draw all the kills done
+ * so far, so the killed pedestrians don't cost anything per frame. The kills
+ * are read from the log of a {@link Snapshot}, so the cache can be used by
+ * another thread than the one advancing the simulation.
+ */
+public class MapCache {
+	/**
+	 * Size of the chunk, in pixels.
+	 */
+	public final static int CHUNK = 1024;
+	/**
+	 * Size of the chunk, in map cells.
+	 */
+	protected final static int CELLS = CHUNK / Main.ROAD;
+	/**
+	 * Size of the single chunk in memory, in bytes.
+	 */
+	public final static long CHUNK_BYTES = (long) CHUNK * CHUNK * 4;
+	/**
+	 * Default memory budget of the cache, in bytes.
+	 */
+	public final static long DEFAULT_BUDGET = 64L * 1024 * 1024;
+
+	/**
+	 * The simulation, whose map is drawn.
+	 */
+	protected final Simulation sim;
+	protected final Atlas atlas;
+	protected final Image grass;
+	/**
+	 * Memory budget, in bytes. It's never lower than 4 chunks, because that
+	 * many of them can be visible at the same time.
+	 */
+	protected final long budget;
+	/**
+	 * If <code>true</code>, the chunks are <code>TYPE_INT_RGB</code> images,
+	 * which can be copied into a {@link Framebuffer}.
+	 */
+	protected final boolean packed;
+
+	/**
+	 * Log of the kills drawn as the decals, see {@link Simulation#decals}.
+	 */
+	protected int[] decalLog = new int[0];
+	/**
+	 * Number of the kills that are already baked into the chunks, i.e.
+	 * position in the log of the next decal to draw.
+	 */
+	protected int decals = 0;
+	/**
+	 * Only every n-th kill of the log is drawn, to save the time of baking
+	 * the chunks when there are many kills.
+	 */
+	protected int decalStep = 1;
+
+	/**
+	 * Range of the chunks in the rectangle being drawn: the first column and
+	 * row, and the last column and row.
+	 */
+	protected final int[] visible = new int[4];
+
+	/**
+	 * Baked chunks, in the access order (the least recently used first).
+	 */
+	protected final LinkedHashMap<Long, BufferedImage> chunks = new LinkedHashMap<Long, BufferedImage>(
+			16, 0.75f, true);
+
+	/**
+	 * Creates a new, empty cache.
+	 *
+	 * @param sim
+	 *            the simulation, whose map is drawn
+	 * @param renderer
+	 *            the renderer, whose images are used
+	 * @param budget
+	 *            memory budget, in bytes
+	 */
+	public MapCache(Simulation sim, Renderer renderer, long budget) {
+		this(sim, renderer, budget, false);
+	}
+
+	/**
+	 * Creates a new, empty cache.
+	 *
+	 * @param sim
+	 *            the simulation, whose map is drawn
+	 * @param renderer
+	 *            the renderer, whose images are used
+	 * @param budget
+	 *            memory budget, in bytes
+	 * @param packed
+	 *            if <code>true</code>, the chunks can be drawn into a
+	 *            {@link Framebuffer}
+	 */
+	public MapCache(Simulation sim, Renderer renderer, long budget,
+			boolean packed) {
+		this.sim = sim;
+		this.packed = packed;
+		atlas = renderer.atlas;
+		grass = renderer.grassImg;
+		this.budget = Math.max(budget, 4 * CHUNK_BYTES);
+	}
+
+	/**
+	 * Draws the pedestrians killed since the last call into the cached
+	 * chunks. It should be called before drawing every frame.
+	 *
+	 * @param s
+	 *            snapshot of the simulation, with the log of the kills
+	 */
+	public void update(Snapshot s) {
+		decalLog = s.decals;
+		for (; decals < s.decalCount; decals++) {
+			if (decals % decalStep != 0) {
+				continue;
+			}
+			int x = decalLog[decals * 4] - Main.TILE / 2;
+			int y = decalLog[decals * 4 + 1] - Main.TILE / 2;
+
+			// The decal can lie on up to 4 chunks
+			int cx0 = Math.floorDiv(x, CHUNK), cx1 = Math.floorDiv(x
+					+ Main.TILE, CHUNK);
+			int cy0 = Math.floorDiv(y, CHUNK), cy1 = Math.floorDiv(y
+					+ Main.TILE, CHUNK);
+			for (int cx = cx0; cx <= cx1; cx++) {
+				for (int cy = cy0; cy <= cy1; cy++) {
+					// Don't touch the access order - it's not a use
+					BufferedImage chunk = chunks.get(key(cx, cy));
+					if (chunk != null) {
+						Graphics2D g = chunk.createGraphics();
+						drawDecal(g, decals, cx, cy);
+						g.dispose();
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Changes the {@link #decalStep}. When more kills are to be drawn, the
+	 * chunks are baked again, so the kills skipped so far appear; when less,
+	 * the chunks are kept, and only the next kills are skipped.
+	 *
+	 * @param step
+	 *            every how many kills one is drawn
+	 */
+	public void setDecalStep(int step) {
+		if (step < decalStep) {
+			chunks.clear();
+		}
+		decalStep = step;
+	}
+
+	/**
+	 * Draws a killed pedestrian on the chunk.
+	 *
+	 * @param g
+	 *            graphics of the chunk
+	 * @param n
+	 *            position of the kill in the {@link #decalLog}
+	 * @param cx
+	 *            column of the chunk
+	 * @param cy
+	 *            row of the chunk
+	 */
+	protected void drawDecal(Graphics2D g, int n, int cx, int cy) {
+		int x = decalLog[n * 4] - Main.TILE / 2 - cx * CHUNK;
+		int y = decalLog[n * 4 + 1] - Main.TILE / 2 - cy * CHUNK;
+		atlas.draw(g, atlas.region(Main.IMG_BLOOD, decalLog[n * 4 + 3]), x, y);
+		atlas.draw(g, atlas.region(Main.IMG_KILLED_PEDESTRIAN,
+				decalLog[n * 4 + 2]), x, y);
+	}
+
+	/**
+	 * Returns the key of the chunk in {@link #chunks}.
+	 *
+	 * @param cx
+	 *            column of the chunk
+	 * @param cy
+	 *            row of the chunk
+	 * @return The key.
+	 */
+	protected static Long key(int cx, int cy) {
+		return ((long) cx << 32) | (cy & 0xffffffffL);
+	}
+
+	/**
+	 * Draws the part of the map in given rectangle. The graphics must be
+	 * already translated by the camera position.
+	 *
+	 * @param g
+	 *            a {@link Graphics2D} object.
+	 * @param x0
+	 *            left edge of the rectangle
+	 * @param y0
+	 *            top edge of the rectangle
+	 * @param x1
+	 *            right edge of the rectangle
+	 * @param y1
+	 *            bottom edge of the rectangle
+	 */
+	public void draw(Graphics2D g, int x0, int y0, int x1, int y1) {
+		findVisible(x0, y0, x1, y1);
+		for (int cx = visible[0]; cx <= visible[2]; cx++) {
+			for (int cy = visible[1]; cy <= visible[3]; cy++) {
+				g.drawImage(getChunk(cx, cy), cx * CHUNK, cy * CHUNK, null);
+			}
+		}
+	}
+
+	/**
+	 * Copies the part of the map covered by a framebuffer into it, row by
+	 * row. The cache must be {@link #packed}.
+	 *
+	 * @param fb
+	 *            the framebuffer
+	 * @param x0
+	 *            position of the left edge of the framebuffer on the map
+	 * @param y0
+	 *            position of the top edge of the framebuffer on the map
+	 */
+	public void draw(Framebuffer fb, int x0, int y0) {
+		findVisible(x0, y0, x0 + fb.width - 1, y0 + fb.height - 1);
+		for (int cx = visible[0]; cx <= visible[2]; cx++) {
+			for (int cy = visible[1]; cy <= visible[3]; cy++) {
+				// Only the part of the chunk inside the framebuffer
+				int sx = Math.max(x0 - cx * CHUNK, 0);
+				int sy = Math.max(y0 - cy * CHUNK, 0);
+				int w = Math.min(CHUNK, x0 + fb.width - cx * CHUNK) - sx;
+				int h = Math.min(CHUNK, y0 + fb.height - cy * CHUNK) - sy;
+				fb.copy(Framebuffer.getPixels(getChunk(cx, cy)), CHUNK, sx,
+						sy, w, h, cx * CHUNK + sx - x0, cy * CHUNK + sy - y0);
+			}
+		}
+	}
+
+	/**
+	 * Finds the range of the chunks in given rectangle, and stores it in
+	 * {@link #visible}.
+	 *
+	 * @param x0
+	 *            left edge of the rectangle
+	 * @param y0
+	 *            top edge of the rectangle
+	 * @param x1
+	 *            right edge of the rectangle
+	 * @param y1
+	 *            bottom edge of the rectangle
+	 */
+	protected void findVisible(int x0, int y0, int x1, int y1) {
+		visible[0] = Math.floorDiv(x0, CHUNK);
+		visible[1] = Math.floorDiv(y0, CHUNK);
+		visible[2] = Math.floorDiv(x1, CHUNK);
+		visible[3] = Math.floorDiv(y1, CHUNK);
+		int length = sim.getMapLength();
+		if (length > 0) {
+			// Nothing to draw outside of the map
+			int last = (length * Main.ROAD - 1) / CHUNK;
+			visible[0] = Math.max(visible[0], 0);
+			visible[1] = Math.max(visible[1], 0);
+			visible[2] = Math.min(visible[2], last);
+			visible[3] = Math.min(visible[3], last);
+		}
+	}
+
+	/**
+	 * Returns the chunk, baking it if it's not cached.
+	 *
+	 * @param cx
+	 *            column of the chunk
+	 * @param cy
+	 *            row of the chunk
+	 * @return Image of the chunk.
+	 */
+	protected BufferedImage getChunk(int cx, int cy) {
+		Long key = key(cx, cy);
+		BufferedImage chunk = chunks.get(key);
+		if (chunk == null) {
+			evict(CHUNK_BYTES);
+			chunk = bake(cx, cy);
+			chunks.put(key, chunk);
+		}
+		return chunk;
+	}
+
+	/**
+	 * Evicts the least recently used chunks, until there's enough space for
+	 * given number of bytes.
+	 *
+	 * @param needed
+	 *            number of bytes needed
+	 */
+	protected void evict(long needed) {
+		Iterator<Map.Entry<Long, BufferedImage>> it = chunks.entrySet()
+				.iterator();
+		while (it.hasNext() && getUsedBytes() + needed > budget) {
+			it.next().getValue().flush();
+			it.remove();
+		}
+	}
+
+	/**
+	 * Bakes the chunk.
+	 *
+	 * @param cx
+	 *            column of the chunk
+	 * @param cy
+	 *            row of the chunk
+	 * @return Image of the chunk.
+	 */
+	protected BufferedImage bake(int cx, int cy) {
+		BufferedImage chunk = (packed ? new BufferedImage(CHUNK, CHUNK,
+				BufferedImage.TYPE_INT_RGB) : Generator.getCmptblImg(CHUNK,
+				CHUNK, Transparency.OPAQUE));
+		Graphics2D g = chunk.createGraphics();
+
+		for (int x = 0; x < CHUNK; x += Main.TILE) {
+			for (int y = 0; y < CHUNK; y += Main.TILE) {
+				g.drawImage(grass, x, y, null);
+			}
+		}
+		for (int x = cx * CELLS; x < (cx + 1) * CELLS; x++) {
+			for (int y = cy * CELLS; y < (cy + 1) * CELLS; y++) {
+				int cell = sim.getCell(x, y);
+				if (cell != -1) {
+					atlas.draw(g, atlas.region(cell, 0), x * Main.ROAD - cx
+							* CHUNK, y * Main.ROAD - cy * CHUNK);
+				}
+			}
+		}
+
+		// Decals of the pedestrians killed so far. The newer ones are drawn
+		// by update(Snapshot).
+		int x0 = cx * CHUNK - Main.TILE, x1 = (cx + 1) * CHUNK + Main.TILE;
+		int y0 = cy * CHUNK - Main.TILE, y1 = (cy + 1) * CHUNK + Main.TILE;
+		for (int n = 0; n < decals; n += decalStep) {
+			int x = decalLog[n * 4], y = decalLog[n * 4 + 1];
+			if (x > x0 && x < x1 && y > y0 && y < y1) {
+				drawDecal(g, n, cx, cy);
+			}
+		}
+
+		g.dispose();
+		return chunk;
+	}
+
+	/**
+	 * Returns the memory used by the cached chunks.
+	 *
+	 * @return Used memory, in bytes.
+	 */
+	public long getUsedBytes() {
+		return chunks.size() * CHUNK_BYTES;
+	}
+}
@@ -0,0 +1,232 @@
+/*
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ *  
+ *  (C) Copyright 2012 m4tx
+ *  http://www.m4tx.pl/
+ */
+
+package pl.m4tx.Carnobyl;
+
+import java.io.File;
+
+/**
+ * Command line options of the game.
+ */
+public class Options {
+	/**
+	 * Seed used by map and image generator.
+	 */
+	protected long seed = System.currentTimeMillis();
+	/**
+	 * Size of the map, in blocks, 0 means random.
+	 */
+	protected int size = 0;
+	/**
+	 * Number of the pedestrians, 0 means 20 per block.
+	 */
+	protected int pedestrians = 0;
+	/**
+	 * If <code>true</code>, the map is generated in chunks, when they are
+	 * needed, see {@link StreamingWorld}.
+	 */
+	protected boolean streaming = false;
+	/**
+	 * Memory budget of the pre-rendered map, in bytes.
+	 */
+	protected long mapCacheBudget = MapCache.DEFAULT_BUDGET;
+	/**
+	 * Number of threads used to generate the images.
+	 */
+	protected int threads = Runtime.getRuntime().availableProcessors();
+	/**
+	 * Directory of the {@link AssetCache}, or <code>null</code> if the images
+	 * shouldn't be cached.
+	 */
+	protected File assetCache = AssetCache.getDefaultDir();
+	/**
+	 * Number of the headings the car is pre-rendered at.
+	 */
+	protected int carHeadings = CarSprites.DEFAULT_HEADINGS;
+	/**
+	 * If <code>true</code>, the car is drawn from its shapes instead of the
+	 * pre-rendered images.
+	 */
+	protected boolean vectorCar = false;
+	/**
+	 * If <code>true</code>, the frames are composed by the
+	 * {@link SoftwareRenderer} instead of Java2D.
+	 */
+	protected boolean softwareRenderer = false;
+	/**
+	 * Fixed quality tier, one of the {@link QualityGovernor} constants, or -1
+	 * if it's chosen automatically.
+	 */
+	protected int quality = -1;
+	/**
+	 * Maximum number of frames per second, 0 means uncapped.
+	 */
+	protected int fps = 60;
+	/**
+	 * If <code>true</code>, the car is drawn between the simulation ticks.
+	 */
+	protected boolean interpolate = true;
+	/**
+	 * If <code>true</code>, frame time statistics are printed every second.
+	 */
+	protected boolean frameStats = false;
+	/**
+	 * If <code>true</code>, the profiler overlay is shown from the start.
+	 */
+	protected boolean profile = false;
+	/**
+	 * File the inputs of the game are recorded to, or <code>null</code>.
+	 */
+	protected File record = null;
+	/**
+	 * If not <code>null</code>, the game only replays this recording, as
+	 * fast as possible, without showing the window.
+	 */
+	protected File replay = null;
+	/**
+	 * If positive, the game only renders this many frames into an offscreen
+	 * image, as fast as possible, and prints the frame rate. The frames
+	 * follow the {@link #replay}, if given, or a camera path.
+	 */
+	protected int renderFrames = 0;
+	/**
+	 * Directory the frames rendered by {@link #renderFrames} are saved to,
+	 * or <code>null</code>.
+	 */
+	protected File dumpFrames = null;
+	/**
+	 * If <code>true</code>, the game only checks if the images generated by
+	 * one and by many threads are identical, without showing the window.
+	 */
+	protected boolean verifyAssets = false;
+	/**
+	 * If not <code>null</code>, the game only saves the sprite {@link Atlas}
+	 * to this file, without showing the window.
+	 */
+	protected File dumpAtlas = null;
+
+	/**
+	 * Parses the command line arguments.
+	 *
+	 * @param args
+	 *            arguments
+	 * @throws IllegalArgumentException
+	 *             if an argument is unknown or its value is invalid
+	 */
+	public Options(String[] args) {
+		for (int i = 0; i < args.length; i++) {
+			String arg = args[i];
+			if (arg.equals("--seed")) {
+				seed = Long.parseLong(value(args, ++i));
+			} else if (arg.equals("--size")) {
+				size = Integer.parseInt(value(args, ++i));
+				if (size < 1 || size > Simulation.MAX_SIZE) {
+					throw new IllegalArgumentException(
+							"Size of the map must be between 1 and "
+									+ Simulation.MAX_SIZE);
+				}
+			} else if (arg.equals("--pedestrians")) {
+				pedestrians = Integer.parseInt(value(args, ++i));
+				if (pedestrians < 1) {
+					throw new IllegalArgumentException(
+							"Number of pedestrians must be positive");
+				}
+			} else if (arg.equals("--streaming")) {
+				streaming = true;
+			} else if (arg.equals("--map-cache-mb")) {
+				mapCacheBudget = Long.parseLong(value(args, ++i)) * 1024 * 1024;
+			} else if (arg.equals("--threads")) {
+				threads = Integer.parseInt(value(args, ++i));
+				if (threads < 1) {
+					throw new IllegalArgumentException(
+							"Number of threads must be positive");
+				}
+			} else if (arg.equals("--asset-cache")) {
+				assetCache = new File(value(args, ++i));
+			} else if (arg.equals("--no-asset-cache")) {
+				assetCache = null;
+			} else if (arg.equals("--car-headings")) {
+				carHeadings = Integer.parseInt(value(args, ++i));
+				if (carHeadings < CarSprites.MIN_HEADINGS
+						|| carHeadings > CarSprites.MAX_HEADINGS) {
+					throw new IllegalArgumentException(
+							"Number of car headings must be between "
+									+ CarSprites.MIN_HEADINGS + " and "
+									+ CarSprites.MAX_HEADINGS);
+				}
+			} else if (arg.equals("--vector-car")) {
+				vectorCar = true;
+			} else if (arg.equals("--software-renderer")) {
+				softwareRenderer = true;
+			} else if (arg.equals("--quality")) {
+				String name = value(args, ++i);
+				quality = QualityGovernor.getTier(name);
+				if (quality < 0 && !name.equals("auto")) {
+					throw new IllegalArgumentException("Unknown quality: "
+							+ name);
+				}
+			} else if (arg.equals("--fps")) {
+				fps = Integer.parseInt(value(args, ++i));
+			} else if (arg.equals("--no-interpolation")) {
+				interpolate = false;
+			} else if (arg.equals("--frame-stats")) {
+				frameStats = true;
+			} else if (arg.equals("--profile")) {
+				profile = true;
+			} else if (arg.equals("--record")) {
+				record = new File(value(args, ++i));
+			} else if (arg.equals("--replay")) {
+				replay = new File(value(args, ++i));
+			} else if (arg.equals("--render-frames")) {
+				renderFrames = Integer.parseInt(value(args, ++i));
+				if (renderFrames < 1) {
+					throw new IllegalArgumentException(
+							"Number of frames must be positive");
+				}
+			} else if (arg.equals("--dump-frames")) {
+				dumpFrames = new File(value(args, ++i));
+			} else if (arg.equals("--verify-assets")) {
+				verifyAssets = true;
+			} else if (arg.equals("--dump-atlas")) {
+				dumpAtlas = new File(value(args, ++i));
+			} else {
+				throw new IllegalArgumentException("Unknown argument: " + arg);
+			}
+		}
+	}
+
+	/**
+	 * Returns the value of an argument.
+	 *
+	 * @param args
+	 *            arguments
+	 * @param i
+	 *            position of the value
+	 * @return The value.
+	 * @throws IllegalArgumentException
+	 *             if there's no value
+	 */
+	protected static String value(String[] args, int i) {
+		if (i >= args.length) {
+			throw new IllegalArgumentException("Missing value of "
+					+ args[i - 1]);
+		}
+		return args[i];
+	}
+}
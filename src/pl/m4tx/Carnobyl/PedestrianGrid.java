@@ -0,0 +1,202 @@
+/*
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ *  
+ *  (C) Copyright 2012 m4tx
+ *  http://www.m4tx.pl/
+ */
+
+package pl.m4tx.Carnobyl;
+
+import java.util.Arrays;
+
+/**
+ * Uniform grid index of the {@link Pedestrians}, used to find the
+ * pedestrians in given area without checking all of them.
+ * <p>
+ * Every cell of the grid is a square of {@link #cellSize} pixels (by default
+ * one map cell, {@link Main#ROAD}). Pedestrians are bucketed by their
+ * position with a counting sort: indices of the pedestrians in cell
+ * <code>c</code> are stored in {@link #items}, from
+ * <code>cellStart[c]</code> to <code>cellStart[c + 1] - 1</code>.
+ * Pedestrians outside of the grid are put into the nearest border cell, so
+ * they are never lost.
+ * <p>
+ * The index doesn't track changes of the positions; it must be rebuilt by
+ * {@link #build(Pedestrians)} after the pedestrians move, or the
+ * {@link #margin} must cover how far they could move since the last build.
+ * Killing doesn't
+ * change the positions, so the killed pedestrians stay in the index and the
+ * callers filter them by state.
+ */
+public class PedestrianGrid {
+	/**
+	 * Size of the cell, in pixels.
+	 */
+	protected final int cellSize;
+	/**
+	 * Number of the columns and rows of the grid.
+	 */
+	protected final int cols, rows;
+	/**
+	 * Position of the top-left corner of the grid.
+	 */
+	protected final int originX, originY;
+	/**
+	 * Distance by which the pedestrians could move since the index was
+	 * built. Queried rectangles are extended by it.
+	 */
+	protected int margin = 0;
+
+	protected final int[] cellStart;
+	protected int[] items = new int[0];
+	/**
+	 * Cell of every pedestrian, used while building the index.
+	 */
+	protected int[] cellOf = new int[0];
+	/**
+	 * Next free position of every cell, used while building the index.
+	 */
+	protected final int[] cellFill;
+
+	/**
+	 * Creates a new, empty index, starting at <code>(0, 0)</code>.
+	 *
+	 * @param cellSize
+	 *            size of the cell, in pixels
+	 * @param cols
+	 *            number of the columns
+	 * @param rows
+	 *            number of the rows
+	 */
+	public PedestrianGrid(int cellSize, int cols, int rows) {
+		this(cellSize, 0, 0, cols, rows);
+	}
+
+	/**
+	 * Creates a new, empty index.
+	 *
+	 * @param cellSize
+	 *            size of the cell, in pixels
+	 * @param originX
+	 *            position of the left edge of the grid
+	 * @param originY
+	 *            position of the top edge of the grid
+	 * @param cols
+	 *            number of the columns
+	 * @param rows
+	 *            number of the rows
+	 */
+	public PedestrianGrid(int cellSize, int originX, int originY, int cols,
+			int rows) {
+		this.cellSize = cellSize;
+		this.originX = originX;
+		this.originY = originY;
+		this.cols = cols;
+		this.rows = rows;
+		cellStart = new int[cols * rows + 1];
+		cellFill = new int[cols * rows];
+	}
+
+	/**
+	 * Returns the column containing given position on the X axis, clamped to
+	 * the grid.
+	 *
+	 * @param x
+	 *            position on the X axis
+	 * @return The column.
+	 */
+	protected int col(int x) {
+		return Math.min(Math.max(Math.floorDiv(x - originX, cellSize), 0),
+				cols - 1);
+	}
+
+	/**
+	 * Returns the row containing given position on the Y axis, clamped to the
+	 * grid.
+	 *
+	 * @param y
+	 *            position on the Y axis
+	 * @return The row.
+	 */
+	protected int row(int y) {
+		return Math.min(Math.max(Math.floorDiv(y - originY, cellSize), 0),
+				rows - 1);
+	}
+
+	/**
+	 * Rebuilds the index from the current positions of the pedestrians.
+	 *
+	 * @param peds
+	 *            the pedestrians
+	 */
+	public void build(Pedestrians peds) {
+		int n = peds.size();
+		if (items.length < n) {
+			items = new int[peds.x.length];
+			cellOf = new int[peds.x.length];
+		}
+
+		// Count the pedestrians in every cell...
+		Arrays.fill(cellStart, 0);
+		for (int i = 0; i < n; i++) {
+			int c = row(peds.y[i]) * cols + col(peds.x[i]);
+			cellOf[i] = c;
+			cellStart[c + 1]++;
+		}
+		// ...turn the counts into the starting positions...
+		for (int c = 0; c < cols * rows; c++) {
+			cellStart[c + 1] += cellStart[c];
+		}
+		// ...and put them in place.
+		System.arraycopy(cellStart, 0, cellFill, 0, cellFill.length);
+		for (int i = 0; i < n; i++) {
+			items[cellFill[cellOf[i]]++] = i;
+		}
+	}
+
+	/**
+	 * Finds the pedestrians in the cells covering given rectangle.
+	 * <p>
+	 * The result may contain pedestrians that are near the rectangle, but
+	 * outside of it, so the callers should do the exact check themselves.
+	 *
+	 * @param x0
+	 *            left edge of the rectangle
+	 * @param y0
+	 *            top edge of the rectangle
+	 * @param x1
+	 *            right edge of the rectangle
+	 * @param y1
+	 *            bottom edge of the rectangle
+	 * @param result
+	 *            array for the indices of the found pedestrians. It must be
+	 *            able to hold all the pedestrians in the index.
+	 * @return Number of the found pedestrians.
+	 */
+	public int query(int x0, int y0, int x1, int y1, int[] result) {
+		int c0 = col(x0 - margin), c1 = col(x1 + margin);
+		int r0 = row(y0 - margin), r1 = row(y1 + margin);
+		int count = 0;
+		for (int r = r0; r <= r1; r++) {
+			// Cells of a single row are stored one after another, so the
+			// whole span can be copied at once
+			int from = cellStart[r * cols + c0], to = cellStart[r * cols + c1
+					+ 1];
+			System.arraycopy(items, from, result, count, to - from);
+			count += to - from;
+		}
+		return count;
+	}
+}
@@ -0,0 +1,230 @@
+/*
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ *  
+ *  (C) Copyright 2012 m4tx
+ *  http://www.m4tx.pl/
+ */
+
+package pl.m4tx.Carnobyl;
+
+import java.util.Arrays;
+
+/**
+ * Container of the pedestrians.
+ * <p>
+ * Pedestrians are stored in parallel arrays of primitives, indexed by the
+ * pedestrian index: {@link #x}, {@link #y}, {@link #sprite} (id of the
+ * pedestrian image), {@link #state} ({@link #ALIVE} or {@link #KILLED}) and
+ * {@link #blood} (id of the blood image, valid only when killed). Indices are
+ * stable - a pedestrian keeps its index for its whole life, also after being
+ * killed.
+ * <p>
+ * Moving pedestrians have also their velocity, {@link #vx} and {@link #vy},
+ * and the fractional part of their position, {@link #subX} and
+ * {@link #subY}, all in 1/{@link #SUBPIXELS} of a pixel. Walking speeds are
+ * far below a pixel per tick, and fixed point keeps the movement exact and
+ * deterministic.
+ * <p>
+ * Additionally, the container keeps the lists of the alive and the killed
+ * pedestrians, so each group can be iterated without touching the other.
+ * Killing is O(1): the pedestrian is swapped with the last one on the alive
+ * list, and appended to the killed list. Because of that, the alive list
+ * should be iterated backwards if pedestrians can be killed at the same
+ * time:
+ * <p>
+ * <code>for (int n = peds.aliveCount() - 1; n >= 0; n--) {<br>
+ * &nbsp;&nbsp;&nbsp;&nbsp;int i = peds.alive(n);<br>
+ * &nbsp;&nbsp;&nbsp;&nbsp;...<br>
+ * }</code>
+ * <p>
+ * The killed list only grows, in the order of killing.
+ */
+public class Pedestrians {
+	public final static int ALIVE = 0, KILLED = 1;
+	/**
+	 * Number of the fractional steps of a pixel, and its binary logarithm.
+	 */
+	public final static int SUBPIXEL_BITS = 8, SUBPIXELS = 1 << SUBPIXEL_BITS;
+
+	protected int[] x, y, sprite, state, blood;
+	protected int[] vx, vy, subX, subY;
+	/**
+	 * Number of the pedestrians.
+	 */
+	protected int size = 0;
+
+	/**
+	 * Indices of the alive and killed pedestrians.
+	 */
+	protected int[] alive, killed;
+	protected int aliveCount = 0, killedCount = 0;
+	/**
+	 * Position of every alive pedestrian on the {@link #alive} list.
+	 */
+	protected int[] alivePos;
+
+	/**
+	 * Creates a new, empty container.
+	 *
+	 * @param capacity
+	 *            initial capacity of the container
+	 */
+	public Pedestrians(int capacity) {
+		capacity = Math.max(capacity, 16);
+		x = new int[capacity];
+		y = new int[capacity];
+		sprite = new int[capacity];
+		state = new int[capacity];
+		blood = new int[capacity];
+		vx = new int[capacity];
+		vy = new int[capacity];
+		subX = new int[capacity];
+		subY = new int[capacity];
+		alive = new int[capacity];
+		killed = new int[capacity];
+		alivePos = new int[capacity];
+	}
+
+	/**
+	 * Adds an alive pedestrian.
+	 *
+	 * @param x
+	 *            position of the pedestrian on the X axis
+	 * @param y
+	 *            position of the pedestrian on the Y axis
+	 * @param sprite
+	 *            id of the pedestrian image
+	 * @return Index of the new pedestrian.
+	 */
+	public int add(int x, int y, int sprite) {
+		if (size == this.x.length) {
+			grow();
+		}
+		int i = size++;
+		this.x[i] = x;
+		this.y[i] = y;
+		this.sprite[i] = sprite;
+		state[i] = ALIVE;
+		blood[i] = 0;
+		vx[i] = vy[i] = subX[i] = subY[i] = 0;
+
+		alivePos[i] = aliveCount;
+		alive[aliveCount++] = i;
+		return i;
+	}
+
+	/**
+	 * Doubles the capacity of the container.
+	 */
+	protected void grow() {
+		int capacity = x.length * 2;
+		x = Arrays.copyOf(x, capacity);
+		y = Arrays.copyOf(y, capacity);
+		sprite = Arrays.copyOf(sprite, capacity);
+		state = Arrays.copyOf(state, capacity);
+		blood = Arrays.copyOf(blood, capacity);
+		vx = Arrays.copyOf(vx, capacity);
+		vy = Arrays.copyOf(vy, capacity);
+		subX = Arrays.copyOf(subX, capacity);
+		subY = Arrays.copyOf(subY, capacity);
+		alive = Arrays.copyOf(alive, capacity);
+		killed = Arrays.copyOf(killed, capacity);
+		alivePos = Arrays.copyOf(alivePos, capacity);
+	}
+
+	/**
+	 * Kills an alive pedestrian.
+	 *
+	 * @param i
+	 *            index of the pedestrian
+	 * @param blood
+	 *            id of the blood image
+	 */
+	public void kill(int i, int blood) {
+		if (state[i] != ALIVE) {
+			return;
+		}
+		state[i] = KILLED;
+		this.blood[i] = blood;
+
+		// Move the last alive pedestrian into the place of the killed one
+		int pos = alivePos[i], last = alive[--aliveCount];
+		alive[pos] = last;
+		alivePos[last] = pos;
+
+		killed[killedCount++] = i;
+	}
+
+	/**
+	 * Returns the number of all the pedestrians.
+	 *
+	 * @return Number of the pedestrians.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the number of the alive pedestrians.
+	 *
+	 * @return Number of the alive pedestrians.
+	 */
+	public int aliveCount() {
+		return aliveCount;
+	}
+
+	/**
+	 * Returns the index of n-th alive pedestrian.
+	 *
+	 * @param n
+	 *            position on the alive list, from 0 to
+	 *            <code>aliveCount() - 1</code>
+	 * @return Index of the pedestrian.
+	 */
+	public int alive(int n) {
+		return alive[n];
+	}
+
+	/**
+	 * Returns the number of the killed pedestrians.
+	 *
+	 * @return Number of the killed pedestrians.
+	 */
+	public int killedCount() {
+		return killedCount;
+	}
+
+	/**
+	 * Returns the index of n-th killed pedestrian.
+	 *
+	 * @param n
+	 *            position on the killed list, from 0 to
+	 *            <code>killedCount() - 1</code>
+	 * @return Index of the pedestrian.
+	 */
+	public int killed(int n) {
+		return killed[n];
+	}
+
+	/**
+	 * Returns the approximate amount of memory used by the container.
+	 *
+	 * @return Number of bytes.
+	 */
+	public long getMemoryBytes() {
+		// 12 arrays of the same length
+		return Simulation.getBytes(x.length, 4) * 12;
+	}
+}
@@ -0,0 +1,239 @@
+/*
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ *  
+ *  (C) Copyright 2012 m4tx
+ *  http://www.m4tx.pl/
+ */
+
+package pl.m4tx.Carnobyl;
+
+import java.util.Arrays;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Measures how long every phase of the frame takes.
+ * <p>
+ * The times of the last {@link #WINDOW} frames are kept for every phase, and
+ * their percentiles (p50, p95, p99) are recalculated every
+ * {@link #REFRESH} frames, to be shown on the overlay drawn by the
+ * {@link Renderer}.
+ * <p>
+ * Every frame and every phase is also emitted as a JDK Flight Recorder event
+ * (category "Carnobyl64k"), when a recording with these events enabled is
+ * running, e.g.:
+ * <code>java -XX:StartFlightRecording=filename=game.jfr -jar Carnobyl.jar</code>
+ * <p>
+ * Phases are measured by calling {@link #begin(int)} and {@link #end(int)},
+ * and frames by {@link #beginFrame()} and {@link #endFrame()}, all from the
+ * render thread. The times of the simulation thread are added by
+ * {@link #record(int, long)}.
+ */
+public class Profiler {
+	/**
+	 * Phases of the frame.
+	 */
+	public final static int SIMULATION = 0, MAP = 1, PEDESTRIANS = 2, CAR = 3,
+			HUD = 4, UPSCALE = 5, SHOW = 6, SYNC = 7, WAIT = 8, FRAME = 9;
+	/**
+	 * Names of the phases.
+	 */
+	protected final static String[] NAMES = { "simulation", "map",
+			"pedestrians", "car", "hud", "upscale", "show", "sync", "wait",
+			"frame" };
+	/**
+	 * Number of the frames the percentiles are calculated from.
+	 */
+	protected final static int WINDOW = 256;
+	/**
+	 * Number of the frames between recalculations of the percentiles.
+	 */
+	protected final static int REFRESH = 16;
+
+	/**
+	 * JFR event of a whole frame.
+	 */
+	@Name("pl.m4tx.Carnobyl.Frame")
+	@Label("Frame")
+	@Category("Carnobyl64k")
+	@Description("A frame of the game loop")
+	@StackTrace(false)
+	protected static class FrameEvent extends Event {
+		@Label("Frame number")
+		protected long frame;
+		@Label("Quality")
+		protected String quality;
+	}
+
+	/**
+	 * JFR event of a phase of the frame.
+	 */
+	@Name("pl.m4tx.Carnobyl.Phase")
+	@Label("Frame Phase")
+	@Category("Carnobyl64k")
+	@Description("A phase of a frame of the game loop")
+	@StackTrace(false)
+	protected static class PhaseEvent extends Event {
+		@Label("Frame number")
+		protected long frame;
+		@Label("Phase")
+		protected String phase;
+	}
+
+	protected final static EventType FRAME_EVENT = EventType
+			.getEventType(FrameEvent.class);
+	protected final static EventType PHASE_EVENT = EventType
+			.getEventType(PhaseEvent.class);
+
+	/**
+	 * Start of the phases in the current frame.
+	 */
+	protected final long[] start = new long[NAMES.length];
+	/**
+	 * Times of the phases in the last {@link #WINDOW} frames, in
+	 * nanoseconds.
+	 */
+	protected final long[][] samples = new long[NAMES.length][WINDOW];
+	/**
+	 * Number of the current frame.
+	 */
+	protected long frame = 0;
+	/**
+	 * Last calculated p50, p95 and p99 of every phase, in nanoseconds.
+	 */
+	protected final long[][] percentiles = new long[NAMES.length][3];
+	/**
+	 * JFR events of the phases in progress, <code>null</code> if the events
+	 * aren't recorded.
+	 */
+	protected final PhaseEvent[] events = new PhaseEvent[NAMES.length];
+	protected FrameEvent frameEvent;
+	/**
+	 * If <code>true</code>, the {@link Renderer} draws the percentiles.
+	 */
+	protected volatile boolean overlay = false;
+	/**
+	 * Quality of the rendering, see {@link QualityGovernor}, shown on the
+	 * overlay and recorded in the frame events. <code>null</code> if it's
+	 * not known.
+	 */
+	protected String quality = null;
+
+	/**
+	 * Starts a new frame.
+	 */
+	public void beginFrame() {
+		int n = (int) (frame % WINDOW);
+		for (long[] phase : samples) {
+			phase[n] = 0;
+		}
+		if (FRAME_EVENT.isEnabled()) {
+			frameEvent = new FrameEvent();
+			frameEvent.frame = frame;
+			frameEvent.quality = quality;
+			frameEvent.begin();
+		}
+		start[FRAME] = System.nanoTime();
+	}
+
+	/**
+	 * Ends the current frame.
+	 */
+	public void endFrame() {
+		samples[FRAME][(int) (frame % WINDOW)] = System.nanoTime()
+				- start[FRAME];
+		if (frameEvent != null) {
+			frameEvent.commit();
+			frameEvent = null;
+		}
+		frame++;
+		if (overlay && frame % REFRESH == 0) {
+			updatePercentiles();
+		}
+	}
+
+	/**
+	 * Starts a phase.
+	 *
+	 * @param phase
+	 *            the phase, e.g. {@link #MAP}
+	 */
+	public void begin(int phase) {
+		if (PHASE_EVENT.isEnabled()) {
+			PhaseEvent event = new PhaseEvent();
+			event.frame = frame;
+			event.phase = NAMES[phase];
+			event.begin();
+			events[phase] = event;
+		}
+		start[phase] = System.nanoTime();
+	}
+
+	/**
+	 * Ends a phase. A phase done many times in a frame is measured in total.
+	 *
+	 * @param phase
+	 *            the phase, e.g. {@link #MAP}
+	 */
+	public void end(int phase) {
+		samples[phase][(int) (frame % WINDOW)] += System.nanoTime()
+				- start[phase];
+		if (events[phase] != null) {
+			events[phase].commit();
+			events[phase] = null;
+		}
+	}
+
+	/**
+	 * Adds a time measured elsewhere, e.g. by another thread, to a phase of
+	 * the current frame. No JFR event is emitted for it.
+	 *
+	 * @param phase
+	 *            the phase, e.g. {@link #SIMULATION}
+	 * @param nanos
+	 *            the time, in nanoseconds
+	 */
+	public void record(int phase, long nanos) {
+		samples[phase][(int) (frame % WINDOW)] += nanos;
+	}
+
+	/**
+	 * Recalculates the {@link #percentiles} from the frames in the window.
+	 */
+	protected void updatePercentiles() {
+		int n = (int) Math.min(frame, WINDOW);
+		long[] sorted = new long[n];
+		for (int phase = 0; phase < NAMES.length; phase++) {
+			System.arraycopy(samples[phase], 0, sorted, 0, n);
+			Arrays.sort(sorted);
+			percentiles[phase][0] = sorted[(n - 1) * 50 / 100];
+			percentiles[phase][1] = sorted[(n - 1) * 95 / 100];
+			percentiles[phase][2] = sorted[(n - 1) * 99 / 100];
+		}
+	}
+
+	/**
+	 * Shows or hides the overlay.
+	 */
+	public void toggleOverlay() {
+		overlay = !overlay;
+	}
+}
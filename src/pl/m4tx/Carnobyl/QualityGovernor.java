@@ -0,0 +1,234 @@
+/*
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ *  
+ *  (C) Copyright 2012 m4tx
+ *  http://www.m4tx.pl/
+ */
+
+package pl.m4tx.Carnobyl;
+
+import java.util.Arrays;
+
+/**
+ * Chooses the quality of the rendering, so the frames fit into the time
+ * budget of the frame rate.
+ * <p>
+ * The quality tiers, from the lowest:
+ * <ul>
+ * <li>{@link #LOWEST} - as {@link #LOW}, a quarter of the kills drawn, and
+ * the frame drawn at the half resolution, then scaled up, if the graphics
+ * are accelerated</li>
+ * <li>{@link #LOW} - as {@link #MEDIUM}, and only every second kill drawn</li>
+ * <li>{@link #MEDIUM} - no antialiasing and quality rendering hints</li>
+ * <li>{@link #HIGH} - antialiasing and quality rendering hints, the car drawn
+ * from the pre-rendered images</li>
+ * <li>{@link #ULTRA} - as {@link #HIGH}, and the car drawn from its shapes,
+ * at the exact rotation</li>
+ * </ul>
+ * With a fixed tier, the car is drawn from its shapes whenever
+ * {@link Options#vectorCar} is set, at any tier. The
+ * {@link SoftwareRenderer} doesn't use the hints nor the lower resolution,
+ * so only the kills and the car differ for it.
+ * <p>
+ * The governor collects the render times of the frames (without showing
+ * them and waiting for the next frame) in windows of {@link #WINDOW}
+ * frames. If the 90th percentile of a window exceeds {@link #DOWN_LOAD} of
+ * the budget, the quality goes one tier down. It goes one tier up only
+ * when the percentile stays below {@link #UP_LOAD} of the budget for
+ * {@link #UP_WINDOWS} windows in a row, so it doesn't switch back and forth
+ * around the limit.
+ * The window after a change isn't judged, as the caches of the new tier are
+ * filled then.
+ */
+public class QualityGovernor {
+	/**
+	 * Quality tiers.
+	 */
+	public final static int LOWEST = 0, LOW = 1, MEDIUM = 2, HIGH = 3,
+			ULTRA = 4;
+	/**
+	 * Names of the tiers.
+	 */
+	protected final static String[] NAMES = { "lowest", "low", "medium",
+			"high", "ultra" };
+	/**
+	 * Number of the frames judged together.
+	 */
+	protected final static int WINDOW = 30;
+	/**
+	 * Part of the budget above which the quality goes down.
+	 */
+	protected final static double DOWN_LOAD = 0.9;
+	/**
+	 * Part of the budget below which the quality can go up.
+	 */
+	protected final static double UP_LOAD = 0.6;
+	/**
+	 * Number of the windows in a row below {@link #UP_LOAD} needed to go up.
+	 */
+	protected final static int UP_WINDOWS = 4;
+
+	/**
+	 * Time budget of a frame, in nanoseconds.
+	 */
+	protected final long budget;
+	/**
+	 * If <code>false</code>, the tier is fixed.
+	 */
+	protected final boolean auto;
+	/**
+	 * Highest tier the governor can choose.
+	 */
+	protected final int maxTier;
+	/**
+	 * If <code>true</code>, the car is drawn from its shapes, see
+	 * {@link Options#vectorCar}.
+	 */
+	protected final boolean vectorCar;
+	/**
+	 * Current tier.
+	 */
+	protected int tier;
+
+	/**
+	 * Render times of the frames in the current window, in nanoseconds.
+	 */
+	protected final long[] times = new long[WINDOW];
+	/**
+	 * Number of the frames in the current window.
+	 */
+	protected int frames = 0;
+	/**
+	 * Number of the windows in a row with enough headroom to go up.
+	 */
+	protected int calmWindows = 0;
+	/**
+	 * If <code>true</code>, the current window is not judged.
+	 */
+	protected boolean settling = false;
+	/**
+	 * Number of the changes of the tier, down and up.
+	 */
+	protected long downs = 0, ups = 0;
+
+	/**
+	 * Creates a new governor for the options: with a fixed tier if
+	 * {@link Options#quality} is set, or choosing it automatically, starting
+	 * from the highest one.
+	 *
+	 * @param options
+	 *            the options
+	 */
+	public QualityGovernor(Options options) {
+		budget = 1000000000L / (options.fps > 0 ? options.fps : 60);
+		auto = (options.quality < 0);
+		maxTier = (options.vectorCar ? ULTRA : HIGH);
+		vectorCar = options.vectorCar;
+		tier = (auto ? maxTier : options.quality);
+	}
+
+	/**
+	 * Returns the tier of given name.
+	 *
+	 * @param name
+	 *            name of the tier, e.g. "high"
+	 * @return The tier, or -1 if there's no such tier.
+	 */
+	public static int getTier(String name) {
+		return Arrays.asList(NAMES).indexOf(name);
+	}
+
+	/**
+	 * Sets the rendering options of the current tier.
+	 *
+	 * @param renderer
+	 *            the renderer
+	 */
+	public void apply(Renderer renderer) {
+		renderer.hints = (tier >= HIGH);
+		renderer.vectorCar = (tier == ULTRA || !auto && vectorCar);
+		renderer.decalStep = (tier == LOWEST ? 4 : tier == LOW ? 2 : 1);
+		renderer.scale = (tier == LOWEST ? 2 : 1);
+	}
+
+	/**
+	 * Adds the render time of a frame, and changes the tier if needed.
+	 *
+	 * @param nanos
+	 *            time of rendering the frame, in nanoseconds
+	 * @return <code>true</code> if the tier was changed, and the new one
+	 *         should be applied.
+	 */
+	public boolean update(long nanos) {
+		if (!auto) {
+			return false;
+		}
+		times[frames++] = nanos;
+		if (frames < WINDOW) {
+			return false;
+		}
+		frames = 0;
+		if (settling) {
+			settling = false;
+			return false;
+		}
+
+		long[] sorted = times.clone();
+		Arrays.sort(sorted);
+		long p90 = sorted[WINDOW * 9 / 10];
+		if (p90 > budget * DOWN_LOAD) {
+			calmWindows = 0;
+			if (tier > LOWEST) {
+				tier--;
+				downs++;
+				settling = true;
+				return true;
+			}
+		} else if (p90 < budget * UP_LOAD) {
+			if (++calmWindows >= UP_WINDOWS && tier < maxTier) {
+				calmWindows = 0;
+				tier++;
+				ups++;
+				settling = true;
+				return true;
+			}
+		} else {
+			calmWindows = 0;
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the current tier.
+	 *
+	 * @return One of the tier constants, e.g. {@link #HIGH}.
+	 */
+	public int getTier() {
+		return tier;
+	}
+
+	/**
+	 * Returns the name of the current tier, and whether it's chosen
+	 * automatically.
+	 *
+	 * @return The description, e.g. "high (auto, 1 down, 0 up)".
+	 */
+	@Override
+	public String toString() {
+		return NAMES[tier]
+				+ (auto ? " (auto, " + downs + " down, " + ups + " up)"
+						: " (fixed)");
+	}
+}
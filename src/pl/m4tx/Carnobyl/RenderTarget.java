@@ -0,0 +1,50 @@
+/*
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ *  
+ *  (C) Copyright 2012 m4tx
+ *  http://www.m4tx.pl/
+ */
+
+package pl.m4tx.Carnobyl;
+
+import java.awt.Graphics2D;
+
+/**
+ * Surface the frames are drawn on by the {@link Renderer}: the window
+ * ({@link WindowTarget}) or an offscreen image ({@link ImageTarget}).
+ * <p>
+ * Every frame is drawn on the graphics returned by {@link #getGraphics()},
+ * which is then disposed, and shown by {@link #show()} and {@link #sync()}.
+ */
+public interface RenderTarget {
+	/**
+	 * Returns the graphics to draw the next frame on. The caller must dispose
+	 * it when the frame is drawn.
+	 *
+	 * @return A {@link Graphics2D} object.
+	 */
+	Graphics2D getGraphics();
+
+	/**
+	 * Shows the drawn frame.
+	 */
+	void show();
+
+	/**
+	 * Makes sure the shown frame is really visible, instead of waiting in a
+	 * buffer of the system.
+	 */
+	void sync();
+}
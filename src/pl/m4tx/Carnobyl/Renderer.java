@@ -0,0 +1,555 @@
+/*
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ *  (C) Copyright 2012 m4tx
+ *  http://www.m4tx.pl/
+ */
+
+package pl.m4tx.Carnobyl;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.Image;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+import java.awt.image.VolatileImage;
+
+/**
+ * Draws the state of the {@link Simulation}.
+ * <p>
+ * The renderer draws a {@link Snapshot} of the simulation state, so it can
+ * run in another thread than the simulation. It can draw on any
+ * {@link Graphics2D} object - the window's back buffer as well as an
+ * offscreen image.
+ */
+public class Renderer {
+	/**
+	 * Position of the car on the screen (its top-left corner).
+	 */
+	protected final static int carPosX = Main.W / 2 - 32,
+			carPosY = Main.H / 2 - 64;
+
+	protected Image grassImg, checkedImg;
+	/**
+	 * Sprites shown on the map.
+	 */
+	protected Atlas atlas;
+	/**
+	 * Background image.
+	 */
+	protected BufferedImage back;
+	protected Car car;
+	/**
+	 * Pre-rendered car, created when it's drawn for the first time.
+	 */
+	protected CarSprites carSprites;
+	/**
+	 * Number of the headings of the {@link #carSprites}.
+	 */
+	protected int carHeadings = CarSprites.DEFAULT_HEADINGS;
+	/**
+	 * If <code>true</code>, the car is drawn from its shapes in every frame,
+	 * at the exact rotation, instead of using the {@link #carSprites}.
+	 */
+	protected boolean vectorCar = false;
+	/**
+	 * If <code>true</code>, the car is drawn between its states of the
+	 * previous and the current tick, according to the time accumulated by
+	 * the simulation. Otherwise it's drawn in its current state.
+	 */
+	protected boolean interpolate = false;
+	/**
+	 * If <code>true</code>, everything but the background is drawn with
+	 * antialiasing and the quality rendering hints.
+	 */
+	protected boolean hints = true;
+	/**
+	 * Only every n-th kill is drawn on the map, see
+	 * {@link MapCache#decalStep}.
+	 */
+	protected int decalStep = 1;
+	/**
+	 * The frame is drawn at the resolution divided by this number, and then
+	 * scaled up to the window size, which is measured as the
+	 * {@link Profiler#UPSCALE} phase. It's only done when the image of the
+	 * lower resolution is accelerated - otherwise scaling the frame costs
+	 * more than drawing it at the full resolution.
+	 */
+	protected int scale = 1;
+	/**
+	 * Image the frame is drawn on when it's scaled up.
+	 */
+	protected VolatileImage lowRes;
+	/**
+	 * Pre-rendered map, created for the first simulation drawn.
+	 */
+	protected MapCache mapCache;
+	/**
+	 * Memory budget of the {@link #mapCache}, in bytes.
+	 */
+	protected long mapCacheBudget = MapCache.DEFAULT_BUDGET;
+
+	/**
+	 * Snapshot used to draw a simulation directly, in the thread advancing
+	 * it.
+	 */
+	protected final Snapshot snapshot = new Snapshot();
+
+	protected RenderingHints rh;
+	protected Font fnt, f, f2;
+	/**
+	 * Pre-rendered texts of the time limit, the "game over" title and its
+	 * description.
+	 */
+	protected TextCache timerText, titleText, descText;
+	/**
+	 * Measures the rendering phases, and provides the percentiles shown on
+	 * its overlay.
+	 */
+	protected Profiler profiler = new Profiler();
+	protected Font profileFont = new Font("Monospaced", Font.PLAIN, 12);
+
+	/**
+	 * Creates a new renderer.
+	 *
+	 * @param assets
+	 *            the generated images
+	 */
+	public Renderer(Assets assets) {
+		grassImg = assets.grassImg;
+		checkedImg = assets.checkedImg;
+		back = Generator.getCmptblImg(Main.W + 64, Main.H + 64,
+				Transparency.OPAQUE);
+		Graphics backG = back.getGraphics();
+		for (int x = 0; x < (Main.W + 128) / 64; x++) {
+			for (int y = 0; y < (Main.H + 128) / 64; y++) {
+				backG.drawImage(grassImg, x * 64, y * 64, 64, 64, null);
+			}
+		}
+		backG.dispose();
+		car = new Car(assets.seed);
+		atlas = new Atlas(assets);
+
+		rh = new RenderingHints(RenderingHints.KEY_ANTIALIASING,
+				RenderingHints.VALUE_ANTIALIAS_ON);
+		rh.add(new RenderingHints(RenderingHints.KEY_RENDERING,
+				RenderingHints.VALUE_RENDER_QUALITY));
+		fnt = new Font("SansSerif", Font.BOLD, Main.W / 8);
+		f = new Font("Serif", Font.BOLD, Main.W / 10);
+		f2 = new Font("SansSerif", Font.BOLD, Main.W / 40);
+		timerText = new TextCache(fnt, Color.BLACK, checkedImg, null, rh);
+		titleText = new TextCache(f, Color.GRAY, checkedImg, null, rh);
+		descText = new TextCache(f2, Color.BLUE, null, Color.WHITE, rh);
+	}
+
+	/**
+	 * Returns the position of the camera on the X axis, i.e. the translation
+	 * of the map on the screen.
+	 *
+	 * @param sim
+	 *            the simulation
+	 * @return Position of the camera.
+	 */
+	protected static int getCamX(Simulation sim) {
+		return getCamX(sim.carX);
+	}
+
+	/**
+	 * Returns the position of the camera on the X axis for given position of
+	 * the car.
+	 *
+	 * @param carX
+	 *            position of the car's center on the X axis
+	 * @return Position of the camera.
+	 */
+	protected static int getCamX(double carX) {
+		return (int) (carPosX + 32 - carX);
+	}
+
+	/**
+	 * Returns the position of the camera on the Y axis.
+	 *
+	 * @param sim
+	 *            the simulation
+	 * @return Position of the camera.
+	 * @see #getCamX(Simulation)
+	 */
+	protected static int getCamY(Simulation sim) {
+		return getCamY(sim.carY);
+	}
+
+	/**
+	 * Returns the position of the camera on the Y axis for given position of
+	 * the car.
+	 *
+	 * @param carY
+	 *            position of the car's center on the Y axis
+	 * @return Position of the camera.
+	 */
+	protected static int getCamY(double carY) {
+		return (int) (carPosY + 64 - carY);
+	}
+
+	/**
+	 * Draws the whole frame. It must be called from the thread advancing the
+	 * simulation.
+	 *
+	 * @param g
+	 *            a {@link Graphics2D} object.
+	 * @param sim
+	 *            the simulation to draw
+	 */
+	public void render(Graphics2D g, Simulation sim) {
+		snapshot.capture(sim);
+		render(g, snapshot, sim.getInterpolation());
+	}
+
+	/**
+	 * Draws the whole frame from a snapshot of the simulation.
+	 *
+	 * @param g
+	 *            a {@link Graphics2D} object.
+	 * @param s
+	 *            the snapshot to draw
+	 * @param alpha
+	 *            moment to draw, from 0 (the previous tick) to 1 (the current
+	 *            one); it's ignored unless {@link #interpolate} is set
+	 */
+	public void render(Graphics2D g, Snapshot s, double alpha) {
+		if (!interpolate) {
+			alpha = 1;
+		}
+		if (scale == 1 || !validateLowRes(g.getDeviceConfiguration())) {
+			drawFrame(g, s, alpha);
+		} else {
+			do {
+				Graphics2D lowG = lowRes.createGraphics();
+				lowG.scale(1.0 / scale, 1.0 / scale);
+				drawFrame(lowG, s, alpha);
+				lowG.dispose();
+				profiler.begin(Profiler.UPSCALE);
+				g.drawImage(lowRes, 0, 0, Main.W, Main.H, null);
+				profiler.end(Profiler.UPSCALE);
+			} while (lowRes.contentsLost()
+					&& validateLowRes(g.getDeviceConfiguration()));
+		}
+		if (profiler.overlay) {
+			profiler.begin(Profiler.HUD);
+			drawProfile(g);
+			profiler.end(Profiler.HUD);
+		}
+	}
+
+	/**
+	 * Prepares the {@link #lowRes} image for a frame: creates it, or restores
+	 * it if its contents were lost.
+	 *
+	 * @param gc
+	 *            configuration of the graphics the frame is drawn on
+	 * @return <code>true</code> if the image is accelerated, and the frame
+	 *         should be drawn on it.
+	 */
+	protected boolean validateLowRes(GraphicsConfiguration gc) {
+		if (lowRes == null || lowRes.getWidth() != Main.W / scale
+				|| lowRes.validate(gc) == VolatileImage.IMAGE_INCOMPATIBLE) {
+			lowRes = gc.createCompatibleVolatileImage(Main.W / scale, Main.H
+					/ scale);
+		}
+		return lowRes.getCapabilities().isAccelerated();
+	}
+
+	/**
+	 * Draws the frame, without the profiler overlay.
+	 *
+	 * @param g
+	 *            a {@link Graphics2D} object.
+	 * @param s
+	 *            the snapshot to draw
+	 * @param alpha
+	 *            moment to draw, from 0 (the previous tick) to 1 (the current
+	 *            one)
+	 */
+	protected void drawFrame(Graphics2D g, Snapshot s, double alpha) {
+		int camX = getCamX(s.getCarX(alpha));
+		int camY = getCamY(s.getCarY(alpha));
+
+		profiler.begin(Profiler.MAP);
+		drawBackground(g, camX, camY);
+
+		if (hints) {
+			g.setRenderingHints(rh);
+		}
+
+		g.translate(camX, camY);
+		drawMap(g, s, camX, camY);
+		profiler.end(Profiler.MAP);
+		profiler.begin(Profiler.PEDESTRIANS);
+		drawPedestrians(g, s, camX, camY);
+		profiler.end(Profiler.PEDESTRIANS);
+		g.translate(-camX, -camY);
+
+		profiler.begin(Profiler.CAR);
+		drawCar(g, s.getRotation(alpha));
+		profiler.end(Profiler.CAR);
+		profiler.begin(Profiler.HUD);
+		drawHud(g, s);
+		profiler.end(Profiler.HUD);
+	}
+
+	/**
+	 * Draws the background.
+	 *
+	 * @param g
+	 *            a {@link Graphics2D} object.
+	 * @param camX
+	 *            position of the camera on the X axis
+	 * @param camY
+	 *            position of the camera on the Y axis
+	 */
+	protected void drawBackground(Graphics2D g, int camX, int camY) {
+		/*
+		 * To increase the rendering speed, the background is stored at the
+		 * first in 64x64 tiles, and then bundled into one width+64, height+64
+		 * background image.
+		 *
+		 * The game calculates this bundle's position on the screen by the
+		 * following way:
+		 *
+		 * (camY < 0 ? 64 : 0) + (camY % 64) - 64
+		 *
+		 * How it works? CamY is camera's position on the Y axis. 64 is the
+		 * tile size. If we'll modulo cam's pos by tile size, we'll get the
+		 * background translation on Y axis. But when user'll go into negative
+		 * values on Y axis, we'll also have to subtract pos % 64 from 64.
+		 * That's the whole trick.
+		 */
+		g.drawImage(back, (camX < 0 ? 64 : 0) + (camX % 64) - 64,
+				(camY < 0 ? 64 : 0) + (camY % 64) - 64, null);
+	}
+
+	/**
+	 * Draws the visible part of the map, together with the killed
+	 * pedestrians, using the {@link #mapCache}. The graphics must be already
+	 * translated by the camera position.
+	 *
+	 * @param g
+	 *            a {@link Graphics2D} object.
+	 * @param s
+	 *            snapshot of the simulation to draw
+	 * @param camX
+	 *            position of the camera on the X axis
+	 * @param camY
+	 *            position of the camera on the Y axis
+	 */
+	protected void drawMap(Graphics2D g, Snapshot s, int camX, int camY) {
+		getMapCache(s).draw(g, -camX, -camY, -camX + Main.W, -camY + Main.H);
+	}
+
+	/**
+	 * Returns the {@link #mapCache} of the snapshot's simulation, with all its
+	 * kills drawn. A new cache is created for a new simulation.
+	 *
+	 * @param s
+	 *            snapshot of the simulation to draw
+	 * @return The map cache.
+	 */
+	protected MapCache getMapCache(Snapshot s) {
+		if (mapCache == null || mapCache.sim != s.sim) {
+			mapCache = createMapCache(s.sim);
+		}
+		mapCache.setDecalStep(decalStep);
+		mapCache.update(s);
+		return mapCache;
+	}
+
+	/**
+	 * Creates a new, empty map cache.
+	 *
+	 * @param sim
+	 *            the simulation, whose map is drawn
+	 * @return The map cache.
+	 */
+	protected MapCache createMapCache(Simulation sim) {
+		return new MapCache(sim, this, mapCacheBudget);
+	}
+
+	/**
+	 * Draws the visible alive pedestrians. The killed ones are drawn as a part
+	 * of the map. The graphics must be already translated by the camera
+	 * position.
+	 *
+	 * @param g
+	 *            a {@link Graphics2D} object.
+	 * @param s
+	 *            snapshot of the simulation to draw
+	 * @param camX
+	 *            position of the camera on the X axis
+	 * @param camY
+	 *            position of the camera on the Y axis
+	 */
+	protected void drawPedestrians(Graphics2D g, Snapshot s, int camX,
+			int camY) {
+		int x0 = -camX - 64, y0 = -camY - 64;
+		int x1 = -camX + Main.W + 32, y1 = -camY + Main.H + 32;
+
+		int sprites = atlas.region(Main.IMG_PEDESTRIAN, 0);
+		for (int i = 0; i < s.pedestrianCount; i++) {
+			int x = s.pedX[i], y = s.pedY[i];
+			if (x > x0 && x < x1 && y > y0 && y < y1) {
+				atlas.draw(g, sprites + s.pedSprite[i], x - Main.TILE / 2, y
+						- Main.TILE / 2);
+			}
+		}
+	}
+
+	/**
+	 * Draws the car in the middle of the screen, using the
+	 * {@link #carSprites}, or the shapes of the car if {@link #vectorCar} is
+	 * set.
+	 *
+	 * @param g
+	 *            a {@link Graphics2D} object.
+	 * @param rotation
+	 *            rotation of the car, in half-turns
+	 */
+	protected void drawCar(Graphics2D g, double rotation) {
+		if (!vectorCar) {
+			if (carSprites == null) {
+				carSprites = new CarSprites(car, carHeadings);
+			}
+			carSprites.draw(g, carPosX + 32, carPosY + 64, rotation);
+			return;
+		}
+
+		g.translate(carPosX + 32, carPosY + 64);
+		g.rotate(rotation * Math.PI);
+		car.drawCar(g);
+		g.rotate(-rotation * Math.PI);
+		g.translate(-carPosX - 32, -carPosY - 64);
+	}
+
+	/**
+	 * Draws the HUD: killed pedestrians counter, time limit and the "game
+	 * over" screen.
+	 *
+	 * @param g
+	 *            a {@link Graphics2D} object.
+	 * @param s
+	 *            snapshot of the simulation to draw
+	 */
+	protected void drawHud(Graphics2D g, Snapshot s) {
+		// Killed / total (pedestrians), there's no total in an unbounded world
+		g.drawString(s.total > 0 ? s.killed + " / " + s.total : Integer
+				.toString(s.killed), 0, 10);
+
+		// Time limit
+		TextCache.Text timer = timerText.get(Integer.toString(Math.max(
+				(int) s.time, 0)));
+		timer.draw(g, Main.W / 2 - (timer.bounds.width / 2),
+				timer.bounds.height);
+
+		// Render "game over" screen
+		if (s.isGameOver()) {
+			double gameOverTime = s.gameOverTime;
+			if (gameOverTime < 4000) {
+				g.setColor(new Color(0f, 0f, 0f, (float) gameOverTime / 4000));
+				g.fillRect(0, 0, Main.W, Main.H);
+			} else {
+				g.setColor(Color.BLACK);
+				g.fillRect(0, 0, Main.W, Main.H);
+
+				TextCache.Text title = titleText.get(getGameOverTitle(s
+						.endReason));
+				Rectangle r = title.bounds;
+				title.draw(g, Main.W / 2 - (r.width / 2), Main.H / 2
+						+ (r.height / 2));
+
+				TextCache.Text desc = descText.get(getGameOverDesc(s
+						.endReason));
+				Rectangle r2 = desc.bounds;
+				desc.draw(g, Main.W / 2 - (r2.width / 2), Main.H / 2
+						+ (r2.height / 2) + r.height);
+
+				if (gameOverTime < 6000) {
+					g.setColor(new Color(0f, 0f, 0f,
+							(float) (1f - (gameOverTime - 4000) / 2000)));
+					g.fillRect(0, 0, Main.W, Main.H);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Draws the overlay of the {@link #profiler}: percentiles of the times of
+	 * all the frame phases.
+	 *
+	 * @param g
+	 *            a {@link Graphics2D} object.
+	 */
+	protected void drawProfile(Graphics2D g) {
+		int lines = Profiler.NAMES.length + 2, lineHeight = 14;
+		g.setColor(new Color(0, 0, 0, 160));
+		g.fillRect(0, 16, 300, lines * lineHeight + 8);
+		g.setColor(Color.WHITE);
+		g.setFont(profileFont);
+		g.drawString(String.format("%-12s %8s %8s %8s", "phase [ms]", "p50",
+				"p95", "p99"), 6, 16 + lineHeight);
+		for (int i = 0; i < Profiler.NAMES.length; i++) {
+			long[] p = profiler.percentiles[i];
+			g.drawString(String.format("%-12s %8.2f %8.2f %8.2f",
+					Profiler.NAMES[i], p[0] / 1e6, p[1] / 1e6, p[2] / 1e6), 6,
+					16 + (i + 2) * lineHeight);
+		}
+		if (profiler.quality != null) {
+			g.drawString("quality: " + profiler.quality, 6, 16 + lines
+					* lineHeight);
+		}
+	}
+
+	/**
+	 * Returns the title of the "game over" screen.
+	 *
+	 * @param endReason
+	 *            one of the <code>Simulation.END_*</code> constants
+	 * @return The title.
+	 */
+	protected static String getGameOverTitle(int endReason) {
+		return (endReason == Simulation.END_ALL_KILLED ? "CONGRATZ"
+				: "BITCH, PLEASE");
+	}
+
+	/**
+	 * Returns the description shown on the "game over" screen.
+	 *
+	 * @param endReason
+	 *            one of the <code>Simulation.END_*</code> constants
+	 * @return The description.
+	 */
+	protected static String getGameOverDesc(int endReason) {
+		switch (endReason) {
+		case Simulation.END_TIMEOUT:
+			return "U WERE 2 SLOW!";
+		case Simulation.END_CRASH:
+			return "Y U BREAK UR CAR?!";
+		default:
+			return "U KILLED'EM'ALL! THX 4 PLAYIN'!";
+		}
+	}
+}
@@ -0,0 +1,989 @@
+/*
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ *  (C) Copyright 2012 m4tx
+ *  http://www.m4tx.pl/
+ */
+
+package pl.m4tx.Carnobyl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.function.IntFunction;
+
+/**
+ * Game logic of Carnobyl, separated from the drawing code.
+ * <p>
+ * The simulation doesn't use AWT at all, so it can be advanced without any
+ * window, e.g. for load and regression runs. It's advanced in fixed steps of
+ * {@link #TICK_NANOS} nanoseconds; {@link #step(int, long)} accumulates the
+ * elapsed time and runs as many ticks as it covers.
+ * <p>
+ * Coordinates used here are world coordinates, in pixels. Map cell
+ * <code>map[x][y]</code> covers the square starting at
+ * <code>(x * ROAD, y * ROAD)</code>. The car position is the position of its
+ * center, and its rotation is expressed in half-turns (1 = 180 degrees), with
+ * 0 meaning that the car is heading up.
+ */
+public class Simulation {
+	/**
+	 * Number of simulation ticks per second.
+	 */
+	public final static int TICKS_PER_SECOND = 120;
+	/**
+	 * Length of the single tick in nanoseconds.
+	 */
+	public final static long TICK_NANOS = 1000000000L / TICKS_PER_SECOND;
+	/**
+	 * Max amount of time that can be accumulated by
+	 * {@link #step(int, long)}. If the game was stalled for longer, the rest
+	 * is simply dropped instead of trying to catch up.
+	 */
+	public final static long MAX_STEP_NANOS = 250000000L;
+
+	/**
+	 * Input flags, which can be combined and passed to
+	 * {@link #step(int, long)}.
+	 */
+	public final static int INPUT_ACCELERATE = 1, INPUT_BRAKE = 2,
+			INPUT_LEFT = 4, INPUT_RIGHT = 8;
+
+	/**
+	 * Reasons of the game over, stored in {@link #endReason}.
+	 */
+	public final static int END_NONE = 0, END_TIMEOUT = 1, END_CRASH = 2,
+			END_ALL_KILLED = 3;
+
+	/**
+	 * Max size of the map, in blocks. The map has (4 * size + 22)^2 cells, 4
+	 * bytes each, so at this size it takes about 1 GiB, and the list of the
+	 * walkable cells built to place the pedestrians up to as much again.
+	 */
+	public final static int MAX_SIZE = 4000;
+
+	/**
+	 * Max speed of the car.
+	 */
+	protected final static double MAX_SPEED = 600;
+	/**
+	 * Number of variants of each pedestrian sprite.
+	 */
+	protected final static int VARIANTS = 20;
+	/**
+	 * Collision box of the car, relative to its center.
+	 */
+	protected final static double CAR_BOX_X = -24, CAR_BOX_Y = -56,
+			CAR_BOX_W = 48, CAR_BOX_H = 112;
+
+	/**
+	 * Single tile of the map.
+	 */
+	protected final static int tile[][] = {
+			{ -1, Main.IMG_ROAD_END_UP, -1, -1, Main.IMG_ROAD_END_UP, -1 },
+			{ Main.IMG_ROAD_END_LEFT, Main.IMG_ASPHALT, Main.IMG_ROAD_HORI,
+					Main.IMG_ROAD_HORI, Main.IMG_ASPHALT,
+					Main.IMG_ROAD_END_RIGHT },
+			{ -1, Main.IMG_ROAD_VERT, Main.IMG_BUILDING, Main.IMG_BUILDING,
+					Main.IMG_ROAD_VERT, -1 },
+			{ -1, Main.IMG_ROAD_VERT, Main.IMG_BUILDING, Main.IMG_BUILDING,
+					Main.IMG_ROAD_VERT, -1 },
+			{ Main.IMG_ROAD_END_LEFT, Main.IMG_ASPHALT, Main.IMG_ROAD_HORI,
+					Main.IMG_ROAD_HORI, Main.IMG_ASPHALT,
+					Main.IMG_ROAD_END_RIGHT },
+			{ -1, Main.IMG_ROAD_END_DOWN, -1, -1, Main.IMG_ROAD_END_DOWN, -1 } };
+
+	/**
+	 * Seed used by the map generator.
+	 */
+	protected final long seed;
+	/**
+	 * Random number generator.
+	 */
+	protected final Random random;
+
+	/**
+	 * Array contains the tile map, <code>null</code> in the streaming mode.
+	 */
+	protected int[][] map;
+	/**
+	 * Size of the map, in blocks, 0 for the unbounded streaming world.
+	 */
+	protected int size;
+	/**
+	 * The map and the pedestrians of the streaming mode, <code>null</code>
+	 * if the whole map is generated at once.
+	 */
+	protected StreamingWorld world;
+	/**
+	 * Chunks of the {@link #world} near the car.
+	 */
+	protected final List<StreamingWorld.Chunk> nearby = new ArrayList<StreamingWorld.Chunk>();
+	/**
+	 * Time it took to generate the map and place the pedestrians, in
+	 * nanoseconds.
+	 */
+	protected long generationNanos;
+	/**
+	 * Solid cells of the {@link #map}.
+	 */
+	protected CollisionMap solid;
+	/**
+	 * The pedestrians. In the streaming mode only the killed ones, see
+	 * {@link StreamingWorld#killed}.
+	 */
+	protected Pedestrians pedestrians;
+	/**
+	 * Spatial index of the pedestrians, <code>null</code> in the streaming
+	 * mode.
+	 */
+	protected PedestrianGrid grid;
+	/**
+	 * Moves the pedestrians, <code>null</code> in the streaming mode, where
+	 * the pedestrians stand still: a chunk has to be the same every time
+	 * it's generated again.
+	 */
+	protected Crowd crowd;
+	/**
+	 * Buffer for the results of the {@link #grid} queries.
+	 */
+	protected int[] found;
+	protected int killed = 0, total = 0;
+	/**
+	 * Log of the kills, drawn as decals: position, sprite and blood image of
+	 * every killed pedestrian, 4 numbers per kill, in the order of killing.
+	 * The log only grows, and it's reallocated when it gets full, so a
+	 * {@link Snapshot} can keep the array and read the kills it knows about
+	 * from another thread.
+	 */
+	protected int[] decals = new int[64];
+	protected int decalCount = 0;
+
+	/**
+	 * Position of the car's center.
+	 */
+	protected double carX, carY;
+	protected double speed = 0, velocityX = 0, rotation = 0;
+	/**
+	 * Position and rotation of the car before the last tick, used to
+	 * interpolate between the ticks.
+	 */
+	protected double prevCarX, prevCarY, prevRotation = 0;
+	/**
+	 * Time left, in seconds.
+	 */
+	protected double time = 60;
+	/**
+	 * Time elapsed since the game was over, in milliseconds.
+	 */
+	protected double gameOverTime = 0;
+	protected int endReason = END_NONE;
+
+	/**
+	 * Number of ticks done so far.
+	 */
+	protected long tick = 0;
+	/**
+	 * Time accumulated by {@link #step(int, long)}, which isn't covered by
+	 * any tick yet.
+	 */
+	protected long accumulator = 0;
+	/**
+	 * Recording of the inputs of the ticks done by
+	 * {@link #step(InputState, long)}, <code>null</code> if the game isn't
+	 * recorded.
+	 */
+	protected InputLog recording;
+
+	/**
+	 * Creates a new simulation and generates its map, with random size and
+	 * default number of pedestrians.
+	 *
+	 * @param seed
+	 *            seed used by the map generator
+	 */
+	public Simulation(long seed) {
+		this(seed, 0, 0);
+	}
+
+	/**
+	 * Creates a new simulation and generates its map.
+	 *
+	 * @param seed
+	 *            seed used by the map generator
+	 * @param size
+	 *            size of the map, in blocks, up to {@link #MAX_SIZE}. 0 means
+	 *            random size (1-3).
+	 * @param pedestrianCount
+	 *            number of the pedestrians. 0 means 20 per block.
+	 * @throws IllegalArgumentException
+	 *             if the size is bigger than {@link #MAX_SIZE}
+	 */
+	public Simulation(long seed, int size, int pedestrianCount) {
+		this(seed, size, pedestrianCount, false);
+	}
+
+	/**
+	 * Creates a new simulation, and generates its map, or prepares the
+	 * {@link StreamingWorld} in the streaming mode.
+	 *
+	 * @param seed
+	 *            seed used by the map generator
+	 * @param size
+	 *            size of the map, in blocks, up to {@link #MAX_SIZE}. 0 means
+	 *            random size (1-3), or an unbounded world in the streaming
+	 *            mode.
+	 * @param pedestrianCount
+	 *            number of the pedestrians, or of the pedestrians in a chunk
+	 *            in the streaming mode. 0 means 20 per block.
+	 * @param streaming
+	 *            if <code>true</code>, the world is generated in chunks, when
+	 *            they are needed
+	 * @throws IllegalArgumentException
+	 *             if the size is bigger than {@link #MAX_SIZE}
+	 */
+	public Simulation(long seed, int size, int pedestrianCount,
+			boolean streaming) {
+		if (size > MAX_SIZE) {
+			throw new IllegalArgumentException("Size of the map must be at "
+					+ "most " + MAX_SIZE + " blocks");
+		}
+		this.seed = seed;
+		random = new Random(seed);
+
+		carX = prevCarX = Main.W - 32;
+		carY = prevCarY = Main.H - 64;
+
+		if (streaming) {
+			long start = System.nanoTime();
+			this.size = Math.max(size, 0);
+			world = new StreamingWorld(seed, this.size,
+					pedestrianCount > 0 ? pedestrianCount
+							: StreamingWorld.DEFAULT_PEDESTRIANS);
+			pedestrians = world.killed;
+			total = world.total;
+			found = new int[0];
+			if (this.size == 0) {
+				// Without the grass around the city, the car would start
+				// inside a building; move it to the middle of its street
+				carX = prevCarX = Math.floor(carX / Main.ROAD) * Main.ROAD
+						+ Main.ROAD / 2;
+			}
+			generationNanos = System.nanoTime() - start;
+			return;
+		}
+		if (size <= 0) {
+			size = random.nextInt(3) + 1;
+		}
+		if (pedestrianCount <= 0) {
+			pedestrianCount = size * 20;
+		}
+		generate(size, pedestrianCount);
+	}
+
+	/**
+	 * Generates the map and places the pedestrians on it.
+	 * <p>
+	 * Every cell of the map depends only on its coordinates (see
+	 * {@link #getCell(int, int, int, int)}), so the map is filled in parallel,
+	 * in bands of columns, and it's the same regardless of the number of
+	 * threads. The pedestrians are then placed in the walkable cells: a cell
+	 * is picked from the list of all of them, and a point inside it, so no
+	 * position has to be drawn again.
+	 *
+	 * @param size
+	 *            size of the map, in blocks
+	 * @param pedestrianCount
+	 *            number of the pedestrians
+	 */
+	protected void generate(final int size, int pedestrianCount) {
+		long start = System.nanoTime();
+		this.size = size;
+		pedestrians = new Pedestrians(pedestrianCount);
+
+		final int length = size * 4 + 22;
+		map = new int[length][];
+		Arrays.parallelSetAll(map, new IntFunction<int[]>() {
+			@Override
+			public int[] apply(int x) {
+				int[] column = new int[length];
+				for (int y = 0; y < length; y++) {
+					column[y] = getCell(x, y, length, size);
+				}
+				return column;
+			}
+		});
+
+		// Pedestrians are placed in the square [from, to) of the world
+		int from = 8 * Main.ROAD + 50, to = from + size * Main.ROAD * 4 + 100;
+		int first = from / Main.ROAD, span = (to - 1) / Main.ROAD - first + 1;
+		int[] walkable = new int[span * span];
+		int walkableCount = 0;
+		for (int x = 0; x < span; x++) {
+			for (int y = 0; y < span; y++) {
+				if (map[first + x][first + y] != Main.IMG_BUILDING) {
+					walkable[walkableCount++] = x * span + y;
+				}
+			}
+		}
+
+		// A point outside of the square is picked again, with its cell, so the
+		// cells only partly inside get pedestrians in proportion to that part,
+		// and the density is the same everywhere
+		for (int i = 0; i < pedestrianCount; i++) {
+			int x, y;
+			do {
+				int cell = walkable[random.nextInt(walkableCount)];
+				x = (first + cell / span) * Main.ROAD
+						+ random.nextInt(Main.ROAD);
+				y = (first + cell % span) * Main.ROAD
+						+ random.nextInt(Main.ROAD);
+			} while (x < from || x >= to || y < from || y >= to);
+			pedestrians.add(x, y, random.nextInt(VARIANTS));
+		}
+		total = pedestrianCount;
+
+		solid = new CollisionMap(map);
+		grid = new PedestrianGrid(Main.ROAD, map.length, map[0].length);
+		grid.build(pedestrians);
+		found = new int[pedestrians.size()];
+		crowd = new Crowd(this);
+		generationNanos = System.nanoTime() - start;
+	}
+
+	/**
+	 * Returns the tile of given cell of the map. The map is surrounded by
+	 * {@link Main#IMG_LEVEL_END} and has the {@link #tile} stamped on it
+	 * <code>size</code> times in both directions, every 3 cells, starting at
+	 * cell 11. The stamps overlap, so each cell is taken from the last stamp
+	 * covering it.
+	 *
+	 * @param x
+	 *            column of the cell
+	 * @param y
+	 *            row of the cell
+	 * @param length
+	 *            size of the map, in cells
+	 * @param size
+	 *            size of the map, in blocks
+	 * @return ID of the tile, or -1 if the cell is empty.
+	 */
+	protected static int getCell(int x, int y, int length, int size) {
+		if (x == 0 || y == 0 || x == length - 1 || y == length - 1) {
+			return Main.IMG_LEVEL_END;
+		}
+		int x2 = getTileOffset(x - 11, size), y2 = getTileOffset(y - 11, size);
+		return (x2 < 0 || y2 < 0 ? -1 : tile[x2][y2]);
+	}
+
+	/**
+	 * Returns the position of a cell inside the last stamp of the
+	 * {@link #tile} covering it, in one direction.
+	 *
+	 * @param cell
+	 *            position of the cell relative to the first stamp
+	 * @param size
+	 *            number of the stamps
+	 * @return The position, or -1 if no stamp covers the cell.
+	 */
+	protected static int getTileOffset(int cell, int size) {
+		if (cell < 0) {
+			return -1;
+		}
+		int block = Math.min(Math.max(cell - 1, 0) / 3, size - 1);
+		int offset = cell - block * 3;
+		return (offset < tile.length ? offset : -1);
+	}
+
+	/**
+	 * Returns the tile of given cell of the map.
+	 *
+	 * @param x
+	 *            column of the cell
+	 * @param y
+	 *            row of the cell
+	 * @return ID of the tile, or -1 if the cell is empty or outside of the
+	 *         map.
+	 */
+	public int getCell(int x, int y) {
+		if (world != null) {
+			return world.getCell(x, y);
+		}
+		if (x < 0 || y < 0 || x >= map.length || y >= map[x].length) {
+			return -1;
+		}
+		return map[x][y];
+	}
+
+	/**
+	 * Returns the size of the map.
+	 *
+	 * @return Number of the cells of the map in both directions, 0 if the
+	 *         map is unbounded.
+	 */
+	public int getMapLength() {
+		return (world != null ? world.length : map.length);
+	}
+
+	/**
+	 * Checks if given cell is solid.
+	 *
+	 * @param x
+	 *            column of the cell
+	 * @param y
+	 *            row of the cell
+	 * @return <code>true</code> if the car can't drive into the cell.
+	 */
+	protected boolean isSolid(int x, int y) {
+		if (world != null) {
+			return CollisionMap.isSolidTile(world.getCell(x, y));
+		}
+		return solid.isSolid(x, y);
+	}
+
+	/**
+	 * Returns the approximate amount of memory used by the map and the
+	 * pedestrians: the tile map, the {@link CollisionMap}, the
+	 * {@link Pedestrians} and the {@link PedestrianGrid}, or the
+	 * {@link StreamingWorld}.
+	 *
+	 * @return Number of bytes.
+	 */
+	public long getMemoryBytes() {
+		if (world != null) {
+			return world.getMemoryBytes();
+		}
+		long bytes = getBytes(map.length, 4);
+		for (int[] column : map) {
+			bytes += getBytes(column.length, 4);
+		}
+		bytes += getBytes(solid.bits.length, 8);
+		bytes += pedestrians.getMemoryBytes();
+		bytes += getBytes(grid.cellStart.length, 4)
+				+ getBytes(grid.cellFill.length, 4)
+				+ getBytes(grid.items.length, 4)
+				+ getBytes(grid.cellOf.length, 4);
+		bytes += getBytes(found.length, 4);
+		return bytes;
+	}
+
+	/**
+	 * Returns the size of an array, including its header.
+	 *
+	 * @param length
+	 *            length of the array
+	 * @param elementBytes
+	 *            size of a single element
+	 * @return Number of bytes.
+	 */
+	protected static long getBytes(int length, int elementBytes) {
+		return 16 + (long) length * elementBytes;
+	}
+
+	/**
+	 * Advances the simulation by given amount of time.
+	 * <p>
+	 * The time is accumulated, and the simulation is advanced by as many
+	 * fixed ticks as it covers; the remainder is kept for the next call.
+	 *
+	 * @param inputs
+	 *            currently active <code>INPUT_*</code> flags
+	 * @param dtNanos
+	 *            elapsed time, in nanoseconds
+	 * @return Number of ticks done.
+	 */
+	public int step(int inputs, long dtNanos) {
+		accumulator = Math.min(accumulator + dtNanos, MAX_STEP_NANOS);
+
+		int ticks = 0;
+		while (accumulator >= TICK_NANOS) {
+			accumulator -= TICK_NANOS;
+			tick(inputs);
+			ticks++;
+		}
+		return ticks;
+	}
+
+	/**
+	 * Advances the simulation by given amount of time, just like
+	 * {@link #step(int, long)}, but reads the input before every tick, and
+	 * adds it to the {@link #recording}.
+	 *
+	 * @param input
+	 *            state of the keys
+	 * @param dtNanos
+	 *            elapsed time, in nanoseconds
+	 * @return Number of ticks done.
+	 */
+	public int step(InputState input, long dtNanos) {
+		accumulator = Math.min(accumulator + dtNanos, MAX_STEP_NANOS);
+
+		int ticks = 0;
+		while (accumulator >= TICK_NANOS) {
+			accumulator -= TICK_NANOS;
+			int inputs = input.snapshot();
+			if (recording != null) {
+				recording.record(inputs);
+			}
+			tick(inputs);
+			ticks++;
+		}
+		return ticks;
+	}
+
+	/**
+	 * Returns the part of the next tick already covered by the accumulated
+	 * time, i.e. how far the moment being drawn is between the previous and
+	 * the current state.
+	 *
+	 * @return Number from 0 (the previous state) to 1 (the current state).
+	 */
+	public double getInterpolation() {
+		return Math.min((double) accumulator / TICK_NANOS, 1);
+	}
+
+	/**
+	 * Returns the position of the car's center on the X axis, interpolated
+	 * between the previous and the current tick.
+	 *
+	 * @param alpha
+	 *            0 for the previous tick, 1 for the current one
+	 * @return The position.
+	 * @see #getInterpolation()
+	 */
+	public double getCarX(double alpha) {
+		return interpolate(prevCarX, carX, alpha);
+	}
+
+	/**
+	 * Returns the position of the car's center on the Y axis, interpolated
+	 * between the previous and the current tick.
+	 *
+	 * @param alpha
+	 *            0 for the previous tick, 1 for the current one
+	 * @return The position.
+	 * @see #getInterpolation()
+	 */
+	public double getCarY(double alpha) {
+		return interpolate(prevCarY, carY, alpha);
+	}
+
+	/**
+	 * Returns the rotation of the car, interpolated between the previous and
+	 * the current tick, the shorter way.
+	 *
+	 * @param alpha
+	 *            0 for the previous tick, 1 for the current one
+	 * @return The rotation, in half-turns.
+	 * @see #getInterpolation()
+	 */
+	public double getRotation(double alpha) {
+		return interpolateRotation(prevRotation, rotation, alpha);
+	}
+
+	/**
+	 * Interpolates between two values.
+	 *
+	 * @param prev
+	 *            the value in the previous tick
+	 * @param current
+	 *            the value in the current tick
+	 * @param alpha
+	 *            0 for the previous tick, 1 for the current one
+	 * @return The interpolated value.
+	 */
+	protected static double interpolate(double prev, double current,
+			double alpha) {
+		return (alpha >= 1 ? current : prev + (current - prev) * alpha);
+	}
+
+	/**
+	 * Interpolates between two rotations, the shorter way.
+	 *
+	 * @param prev
+	 *            the rotation in the previous tick, in half-turns
+	 * @param current
+	 *            the rotation in the current tick, in half-turns
+	 * @param alpha
+	 *            0 for the previous tick, 1 for the current one
+	 * @return The interpolated rotation.
+	 */
+	protected static double interpolateRotation(double prev, double current,
+			double alpha) {
+		double delta = current - prev;
+		if (delta > 1) {
+			delta -= 2;
+		} else if (delta < -1) {
+			delta += 2;
+		}
+		return (alpha >= 1 ? current : prev + delta * alpha);
+	}
+
+	/**
+	 * Does a single, fixed simulation tick.
+	 *
+	 * @param inputs
+	 *            currently active <code>INPUT_*</code> flags
+	 */
+	public void tick(int inputs) {
+		prevCarX = carX;
+		prevCarY = carY;
+		prevRotation = rotation;
+
+		double tpf = 1000.0 / TICKS_PER_SECOND;
+		boolean up = (inputs & INPUT_ACCELERATE) != 0;
+		boolean down = (inputs & INPUT_BRAKE) != 0;
+		boolean left = (inputs & INPUT_LEFT) != 0;
+		boolean right = (inputs & INPUT_RIGHT) != 0;
+
+		time -= tpf / 1000;
+		if (time < 0) {
+			gameOver(END_TIMEOUT);
+		}
+		if (endReason != END_NONE) {
+			gameOverTime += tpf;
+		}
+
+		// Steering the car
+		if (!(up && down)) {
+			if (up) {
+				velocityX = StrictMath.cos(speed / MAX_SPEED / 2 * Math.PI);
+			} else if (down) {
+				if (speed > 0) {
+					velocityX = -2;
+				} else {
+					velocityX = -StrictMath.cos(speed / -MAX_SPEED / 2
+							* Math.PI) / 2;
+				}
+			} else {
+				if (speed < 0.05 && speed > -0.05) {
+					velocityX = 0;
+					speed = 0;
+				} else {
+					velocityX = (speed > 0 ? -0.1 : 0.1);
+				}
+			}
+		}
+		speed += velocityX * tpf / 5;
+
+		if (!(left && right)) {
+			if (left) {
+				rotation -= StrictMath.sin(tpf / 2000 * speed / MAX_SPEED
+						* Math.PI);
+			} else if (right) {
+				rotation += StrictMath.sin(tpf / 2000 * speed / MAX_SPEED
+						* Math.PI);
+			}
+		}
+		while (rotation > 1) {
+			rotation -= 2;
+		}
+		while (rotation < -1) {
+			rotation += 2;
+		}
+
+		// VelocityX - velocity of the car on the X axis - that's why we add
+		// it to Y position.
+		carX += speed * tpf / 1000 * StrictMath.sin(rotation * Math.PI);
+		carY -= speed * tpf / 1000 * StrictMath.cos(rotation * Math.PI);
+
+		checkMapCollisions();
+		if (crowd != null) {
+			crowd.move(pedestrians, grid, tick, carX, carY);
+		}
+		checkPedestrianCollisions();
+
+		tick++;
+	}
+
+	/**
+	 * Checks if the car hit a building or the end of the level, and bounces
+	 * it off.
+	 * <p>
+	 * Only the cells under the car's bounding box are checked. The car
+	 * bounces once, no matter how many solid cells it hit.
+	 */
+	protected void checkMapCollisions() {
+		double sin = StrictMath.sin(rotation * Math.PI);
+		double cos = StrictMath.cos(rotation * Math.PI);
+		double ex = CAR_BOX_W / 2 * Math.abs(cos) + CAR_BOX_H / 2
+				* Math.abs(sin);
+		double ey = CAR_BOX_W / 2 * Math.abs(sin) + CAR_BOX_H / 2
+				* Math.abs(cos);
+		int x0 = (int) Math.floor((carX - ex) / Main.ROAD);
+		int x1 = (int) Math.floor((carX + ex) / Main.ROAD);
+		int y0 = (int) Math.floor((carY - ey) / Main.ROAD);
+		int y1 = (int) Math.floor((carY + ey) / Main.ROAD);
+
+		for (int x = x0; x <= x1; x++) {
+			for (int y = y0; y <= y1; y++) {
+				if (isSolid(x, y)
+						&& carIntersects(sin, cos, x * Main.ROAD, y * Main.ROAD,
+								Main.ROAD, Main.ROAD)) {
+					if (speed > 500) {
+						gameOver(END_CRASH);
+					}
+					speed = -speed;
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Checks if the car hit any pedestrian, and kills them.
+	 */
+	protected void checkPedestrianCollisions() {
+		double sin = StrictMath.sin(rotation * Math.PI);
+		double cos = StrictMath.cos(rotation * Math.PI);
+
+		// Only the pedestrians near the car's bounding box are checked
+		double ex = CAR_BOX_W / 2 * Math.abs(cos) + CAR_BOX_H / 2
+				* Math.abs(sin) + 12;
+		double ey = CAR_BOX_W / 2 * Math.abs(sin) + CAR_BOX_H / 2
+				* Math.abs(cos) + 12;
+		int x0 = (int) (carX - ex), y0 = (int) (carY - ey);
+		int x1 = (int) (carX + ex), y1 = (int) (carY + ey);
+		if (world == null) {
+			checkPedestrianCollisions(pedestrians, grid, null, x0, y0, x1, y1,
+					sin, cos);
+			return;
+		}
+		world.getChunks(x0, y0, x1, y1, nearby);
+		for (int n = 0; n < nearby.size(); n++) {
+			StreamingWorld.Chunk chunk = nearby.get(n);
+			checkPedestrianCollisions(chunk.pedestrians, chunk.grid, chunk, x0,
+					y0, x1, y1, sin, cos);
+		}
+	}
+
+	/**
+	 * Checks if the car hit any of given pedestrians, and kills them.
+	 *
+	 * @param peds
+	 *            the pedestrians
+	 * @param grid
+	 *            index of the pedestrians
+	 * @param chunk
+	 *            chunk of the {@link #world} with the pedestrians, or
+	 *            <code>null</code> if it's not the streaming mode
+	 * @param x0
+	 *            left edge of the area to check
+	 * @param y0
+	 *            top edge of the area to check
+	 * @param x1
+	 *            right edge of the area to check
+	 * @param y1
+	 *            bottom edge of the area to check
+	 * @param sin
+	 *            sine of the car's rotation
+	 * @param cos
+	 *            cosine of the car's rotation
+	 */
+	protected void checkPedestrianCollisions(Pedestrians peds,
+			PedestrianGrid grid, StreamingWorld.Chunk chunk, int x0, int y0,
+			int x1, int y1, double sin, double cos) {
+		if (found.length < peds.size()) {
+			found = new int[peds.size()];
+		}
+		int count = grid.query(x0, y0, x1, y1, found);
+
+		for (int k = 0; k < count; k++) {
+			int i = found[k];
+			if (peds.state[i] == Pedestrians.ALIVE
+					&& carIntersects(sin, cos, peds.x[i] - 12, peds.y[i] - 12,
+							24, 24)) {
+				if (chunk == null) {
+					peds.kill(i, getBloodVariant(i));
+				} else {
+					world.kill(chunk, i, getBloodVariant(i));
+				}
+				addDecal(peds.x[i], peds.y[i], peds.sprite[i], peds.blood[i]);
+				time += 1.5;
+				killed++;
+
+				if (killed == total) {
+					gameOver(END_ALL_KILLED);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Adds a kill to the {@link #decals}.
+	 *
+	 * @param x
+	 *            position of the killed pedestrian on the X axis
+	 * @param y
+	 *            position of the killed pedestrian on the Y axis
+	 * @param sprite
+	 *            id of the pedestrian image
+	 * @param blood
+	 *            id of the blood image
+	 */
+	protected void addDecal(int x, int y, int sprite, int blood) {
+		if (decalCount * 4 == decals.length) {
+			decals = Arrays.copyOf(decals, decals.length * 2);
+		}
+		int n = decalCount * 4;
+		decals[n] = x;
+		decals[n + 1] = y;
+		decals[n + 2] = sprite;
+		decals[n + 3] = blood;
+		decalCount++;
+	}
+
+	/**
+	 * Ends the game, unless it's already over.
+	 *
+	 * @param reason
+	 *            one of the <code>END_*</code> constants
+	 */
+	protected void gameOver(int reason) {
+		if (endReason == END_NONE) {
+			endReason = reason;
+		}
+	}
+
+	/**
+	 * Returns the blood image of a pedestrian killed in the current tick.
+	 * <p>
+	 * It's a hash of the seed, the tick and the pedestrian, instead of the
+	 * next number of the {@link #random} generator, so it doesn't depend on
+	 * anything else done with the generator, and the replays give exactly
+	 * the same results.
+	 *
+	 * @param i
+	 *            index of the pedestrian
+	 * @return Index of the blood image.
+	 */
+	protected int getBloodVariant(int i) {
+		long h = mix(seed + tick * 0x9e3779b97f4a7c15L + i
+				* 0xc2b2ae3d27d4eb4fL);
+		return (int) Math.floorMod(h, (long) VARIANTS);
+	}
+
+	/**
+	 * Mixes the bits of a number (the finalizer of SplitMix64), so that
+	 * similar numbers give completely different results.
+	 *
+	 * @param h
+	 *            the number
+	 * @return The mixed number.
+	 */
+	protected static long mix(long h) {
+		h = (h ^ (h >>> 30)) * 0xbf58476d1ce4e5b9L;
+		h = (h ^ (h >>> 27)) * 0x94d049bb133111ebL;
+		return h ^ (h >>> 31);
+	}
+
+	/**
+	 * Returns a hash of the whole state of the car and of the game, e.g. to
+	 * check if two runs ended in exactly the same state.
+	 *
+	 * @return The hash.
+	 */
+	public long getStateHash() {
+		long h = tick;
+		h = h * 31 + Double.doubleToLongBits(carX);
+		h = h * 31 + Double.doubleToLongBits(carY);
+		h = h * 31 + Double.doubleToLongBits(rotation);
+		h = h * 31 + Double.doubleToLongBits(speed);
+		h = h * 31 + Double.doubleToLongBits(time);
+		h = h * 31 + killed;
+		h = h * 31 + endReason;
+		for (int n = 0; n < pedestrians.killedCount(); n++) {
+			int i = pedestrians.killed(n);
+			h = h * 31 + i;
+			h = h * 31 + pedestrians.blood[i];
+		}
+		for (int i = 0; i < pedestrians.size(); i++) {
+			h = h * 31 + pedestrians.x[i];
+			h = h * 31 + pedestrians.y[i];
+		}
+		return h;
+	}
+
+	/**
+	 * Checks if the car's collision box intersects given rectangle.
+	 * <p>
+	 * The box is rotated around the center of the car, so the check is done
+	 * using the separating axis theorem: the shapes don't intersect only if
+	 * there is an axis (one of the rectangle's or the box's edges), on which
+	 * their projections don't overlap.
+	 *
+	 * @param sin
+	 *            sine of the car's rotation
+	 * @param cos
+	 *            cosine of the car's rotation
+	 * @param x
+	 *            position of the rectangle on the X axis
+	 * @param y
+	 *            position of the rectangle on the Y axis
+	 * @param w
+	 *            the width of the rectangle
+	 * @param h
+	 *            the height of the rectangle
+	 * @return <code>true</code> if they intersect
+	 */
+	protected boolean carIntersects(double sin, double cos, double x,
+			double y, double w, double h) {
+		// Half-extents and center of the box, relative to the car's center
+		double hw = CAR_BOX_W / 2, hh = CAR_BOX_H / 2;
+		double lx = CAR_BOX_X + hw, ly = CAR_BOX_Y + hh;
+		double cx = carX + lx * cos - ly * sin, cy = carY + lx * sin + ly
+				* cos;
+
+		// Rectangle's axes
+		double ex = hw * Math.abs(cos) + hh * Math.abs(sin);
+		double ey = hw * Math.abs(sin) + hh * Math.abs(cos);
+		if (cx + ex <= x || cx - ex >= x + w || cy + ey <= y
+				|| cy - ey >= y + h) {
+			return false;
+		}
+
+		// Box's axes
+		double dx = x + w / 2 - cx, dy = y + h / 2 - cy;
+		double rw = w / 2, rh = h / 2;
+		if (Math.abs(dx * cos + dy * sin) >= hw + rw * Math.abs(cos) + rh
+				* Math.abs(sin)) {
+			return false;
+		}
+		if (Math.abs(-dx * sin + dy * cos) >= hh + rw * Math.abs(sin) + rh
+				* Math.abs(cos)) {
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the number of ticks done so far.
+	 *
+	 * @return Number of ticks.
+	 */
+	public long getTick() {
+		return tick;
+	}
+
+	/**
+	 * Checks if the game is over.
+	 *
+	 * @return <code>true</code> if the game is over.
+	 */
+	public boolean isGameOver() {
+		return endReason != END_NONE;
+	}
+}
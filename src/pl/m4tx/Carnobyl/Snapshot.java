@@ -0,0 +1,240 @@
+/*
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ *  
+ *  (C) Copyright 2012 m4tx
+ *  http://www.m4tx.pl/
+ */
+
+package pl.m4tx.Carnobyl;
+
+import java.util.Arrays;
+
+/**
+ * State of the {@link Simulation} needed to draw a frame: the car, the HUD
+ * values, the alive pedestrians around the car and the kills.
+ * <p>
+ * A snapshot is captured by the simulation thread and drawn by the render
+ * thread (see {@link SnapshotExchange}), so the renderer never reads the
+ * simulation while it's being advanced. The only parts of the simulation
+ * used directly are the ones that never change: the map, through
+ * {@link Simulation#getCell(int, int)}, and the kills in the
+ * {@link #decals} array, which are never overwritten.
+ * <p>
+ * The arrays of the pedestrians are reused by the next captures, so a
+ * snapshot mustn't be captured again while it's drawn - the exchange takes
+ * care of that.
+ */
+public class Snapshot {
+	/**
+	 * Margin around the screen, in which the pedestrians are captured.
+	 */
+	protected final static int MARGIN = Main.TILE;
+
+	/**
+	 * The simulation, used only to read its map.
+	 */
+	protected Simulation sim;
+	/**
+	 * Number of the tick the snapshot was captured after.
+	 */
+	protected long tick;
+	/**
+	 * Value of {@link System#nanoTime()} at which the tick was due, used to
+	 * interpolate between the ticks.
+	 */
+	protected long nanoTime;
+	/**
+	 * Time the simulation took to advance to this snapshot since the
+	 * previous acquired one, in nanoseconds: the steps of the dropped
+	 * snapshots are included, see {@link SnapshotExchange#publish()}.
+	 */
+	protected long stepNanos;
+
+	/**
+	 * State of the car in the current and the previous tick.
+	 */
+	protected double carX, carY, rotation, prevCarX, prevCarY, prevRotation;
+	/**
+	 * Values shown on the HUD.
+	 */
+	protected int killed, total, endReason;
+	protected double time, gameOverTime;
+
+	/**
+	 * Alive pedestrians near the car: positions and sprites.
+	 */
+	protected int pedestrianCount = 0;
+	protected int[] pedX = new int[0], pedY = new int[0],
+			pedSprite = new int[0];
+
+	/**
+	 * Log of the kills of the simulation, see {@link Simulation#decals}, and
+	 * the number of the kills done until this snapshot.
+	 */
+	protected int[] decals;
+	protected int decalCount;
+
+	/**
+	 * Numbers of the snapshots published and dropped (replaced before being
+	 * drawn) by the {@link SnapshotExchange} so far.
+	 */
+	protected long published, dropped;
+
+	/**
+	 * Captures the current state of the simulation. It must be called from
+	 * the thread advancing the simulation.
+	 *
+	 * @param sim
+	 *            the simulation
+	 */
+	public void capture(Simulation sim) {
+		this.sim = sim;
+		tick = sim.tick;
+		nanoTime = System.nanoTime() - sim.accumulator;
+		carX = sim.carX;
+		carY = sim.carY;
+		rotation = sim.rotation;
+		prevCarX = sim.prevCarX;
+		prevCarY = sim.prevCarY;
+		prevRotation = sim.prevRotation;
+		killed = sim.killed;
+		total = sim.total;
+		endReason = sim.endReason;
+		time = sim.time;
+		gameOverTime = sim.gameOverTime;
+		decals = sim.decals;
+		decalCount = sim.decalCount;
+
+		// Everything that can be visible at any point between the ticks
+		int x0 = (int) Math.floor(Math.min(carX, prevCarX)) - Main.W / 2
+				- MARGIN;
+		int y0 = (int) Math.floor(Math.min(carY, prevCarY)) - Main.H / 2
+				- MARGIN;
+		int x1 = (int) Math.ceil(Math.max(carX, prevCarX)) + Main.W / 2
+				+ MARGIN;
+		int y1 = (int) Math.ceil(Math.max(carY, prevCarY)) + Main.H / 2
+				+ MARGIN;
+		pedestrianCount = 0;
+		if (sim.world == null) {
+			capturePedestrians(sim, sim.pedestrians, sim.grid, x0, y0, x1, y1);
+			return;
+		}
+		sim.world.getChunks(x0, y0, x1, y1, sim.nearby);
+		for (int n = 0; n < sim.nearby.size(); n++) {
+			StreamingWorld.Chunk chunk = sim.nearby.get(n);
+			capturePedestrians(sim, chunk.pedestrians, chunk.grid, x0, y0, x1,
+					y1);
+		}
+	}
+
+	/**
+	 * Adds the alive pedestrians in given rectangle to the snapshot.
+	 *
+	 * @param sim
+	 *            the simulation
+	 * @param peds
+	 *            the pedestrians
+	 * @param grid
+	 *            index of the pedestrians
+	 * @param x0
+	 *            left edge of the rectangle
+	 * @param y0
+	 *            top edge of the rectangle
+	 * @param x1
+	 *            right edge of the rectangle
+	 * @param y1
+	 *            bottom edge of the rectangle
+	 */
+	protected void capturePedestrians(Simulation sim, Pedestrians peds,
+			PedestrianGrid grid, int x0, int y0, int x1, int y1) {
+		if (sim.found.length < peds.size()) {
+			sim.found = new int[peds.size()];
+		}
+		int[] found = sim.found;
+		int count = grid.query(x0, y0, x1, y1, found);
+		if (pedX.length < pedestrianCount + count) {
+			int capacity = Math.max(pedestrianCount + count, pedX.length * 2);
+			pedX = Arrays.copyOf(pedX, capacity);
+			pedY = Arrays.copyOf(pedY, capacity);
+			pedSprite = Arrays.copyOf(pedSprite, capacity);
+		}
+		for (int k = 0; k < count; k++) {
+			int i = found[k], x = peds.x[i], y = peds.y[i];
+			if (peds.state[i] == Pedestrians.ALIVE && x > x0 && x < x1
+					&& y > y0 && y < y1) {
+				pedX[pedestrianCount] = x;
+				pedY[pedestrianCount] = y;
+				pedSprite[pedestrianCount] = peds.sprite[i];
+				pedestrianCount++;
+			}
+		}
+	}
+
+	/**
+	 * Returns how far the moment being drawn is between the previous and the
+	 * current tick.
+	 *
+	 * @param now
+	 *            the moment being drawn, as returned by
+	 *            {@link System#nanoTime()}
+	 * @return Number from 0 (the previous tick) to 1 (the current one).
+	 */
+	public double getInterpolation(long now) {
+		return Math.max(Math.min((double) (now - nanoTime)
+				/ Simulation.TICK_NANOS, 1), 0);
+	}
+
+	/**
+	 * Returns the interpolated position of the car's center on the X axis.
+	 *
+	 * @param alpha
+	 *            0 for the previous tick, 1 for the current one
+	 * @return The position.
+	 */
+	public double getCarX(double alpha) {
+		return Simulation.interpolate(prevCarX, carX, alpha);
+	}
+
+	/**
+	 * Returns the interpolated position of the car's center on the Y axis.
+	 *
+	 * @param alpha
+	 *            0 for the previous tick, 1 for the current one
+	 * @return The position.
+	 */
+	public double getCarY(double alpha) {
+		return Simulation.interpolate(prevCarY, carY, alpha);
+	}
+
+	/**
+	 * Returns the interpolated rotation of the car.
+	 *
+	 * @param alpha
+	 *            0 for the previous tick, 1 for the current one
+	 * @return The rotation, in half-turns.
+	 */
+	public double getRotation(double alpha) {
+		return Simulation.interpolateRotation(prevRotation, rotation, alpha);
+	}
+
+	/**
+	 * Checks if the game is over.
+	 *
+	 * @return <code>true</code> if the game is over.
+	 */
+	public boolean isGameOver() {
+		return endReason != Simulation.END_NONE;
+	}
+}
@@ -0,0 +1,176 @@
+/*
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ *  
+ *  (C) Copyright 2012 m4tx
+ *  http://www.m4tx.pl/
+ */
+
+package pl.m4tx.Carnobyl;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Passes the {@link Snapshot}s from the simulation thread to the render
+ * thread, without locks.
+ * <p>
+ * It's a triple buffer: the simulation captures into the back snapshot, the
+ * renderer draws the front one, and the third one is exchanged between them.
+ * Publishing swaps the back snapshot with the middle one, and acquiring swaps
+ * the middle one with the front one if a newer snapshot was published. Both
+ * swaps are single atomic operations, so neither thread ever waits for the
+ * other, and the renderer always gets the latest snapshot.
+ * <p>
+ * A snapshot replaced by a newer one before being acquired is counted as a
+ * dropped frame, and a frame drawn again from the same snapshot, because
+ * nothing newer was published, as a duplicated one. The simulation ticks
+ * {@value Simulation#TICKS_PER_SECOND} times per second, so with the render
+ * rate of 60 fps half of the snapshots are dropped by design; duplicates
+ * mean that the simulation can't keep up with the renderer.
+ * <p>
+ * The {@link Snapshot#stepNanos} of a dropped snapshot is added to the next
+ * one, so the acquired snapshots carry the whole time of the simulation.
+ */
+public class SnapshotExchange {
+	/**
+	 * Flag of the {@link #middle} index, set if the middle snapshot wasn't
+	 * acquired yet.
+	 */
+	protected final static int FRESH = 4;
+
+	protected final Snapshot[] snapshots = { new Snapshot(), new Snapshot(),
+			new Snapshot() };
+	/**
+	 * Index of the middle snapshot, with the {@link #FRESH} flag.
+	 */
+	protected final AtomicInteger middle = new AtomicInteger(1);
+	/**
+	 * Index of the back snapshot, used only by the simulation thread.
+	 */
+	protected int back = 0;
+	/**
+	 * Index of the front snapshot, used only by the render thread.
+	 */
+	protected int front = 2;
+
+	/**
+	 * Numbers of the snapshots published and dropped, counted by the
+	 * simulation thread.
+	 */
+	protected long published = 0, dropped = 0;
+	/**
+	 * Step time of the snapshots dropped since the last published one, in
+	 * nanoseconds, used only by the simulation thread.
+	 */
+	protected long droppedNanos = 0;
+	/**
+	 * Numbers of the frames drawn from a new and from an already drawn
+	 * snapshot, counted by the render thread.
+	 */
+	protected long shown = 0, duplicated = 0;
+	/**
+	 * If <code>true</code>, the last {@link #acquire()} returned a new
+	 * snapshot. Used only by the render thread.
+	 */
+	protected boolean fresh = false;
+	/**
+	 * Values of the counters when the statistics were printed last time.
+	 */
+	protected long lastPublished = 0, lastDropped = 0, lastShown = 0,
+			lastDuplicated = 0;
+
+	/**
+	 * Returns the snapshot to capture the next state into. It must be called
+	 * from the simulation thread.
+	 *
+	 * @return The back snapshot.
+	 */
+	public Snapshot getBack() {
+		return snapshots[back];
+	}
+
+	/**
+	 * Publishes the back snapshot, making it available to the renderer. It
+	 * must be called from the simulation thread.
+	 * <p>
+	 * If the snapshot replaces one the renderer hasn't acquired, the
+	 * {@link Snapshot#stepNanos} of the replaced one is added to the next
+	 * published snapshot. The replaced one can be read safely here, as it
+	 * was taken away from the renderer by the same atomic swap.
+	 */
+	public void publish() {
+		Snapshot s = snapshots[back];
+		s.published = ++published;
+		s.dropped = dropped;
+		s.stepNanos += droppedNanos;
+		droppedNanos = 0;
+		int old = middle.getAndSet(back | FRESH);
+		back = old & ~FRESH;
+		if ((old & FRESH) != 0) {
+			dropped++;
+			droppedNanos = snapshots[back].stepNanos;
+		}
+	}
+
+	/**
+	 * Returns the latest published snapshot. It must be called from the
+	 * render thread, once per frame; the snapshot can be used until the next
+	 * call.
+	 *
+	 * @return The front snapshot.
+	 */
+	public Snapshot acquire() {
+		fresh = ((middle.get() & FRESH) != 0);
+		if (fresh) {
+			front = middle.getAndSet(front) & ~FRESH;
+			shown++;
+		} else {
+			duplicated++;
+		}
+		return snapshots[front];
+	}
+
+	/**
+	 * Checks if the last {@link #acquire()} returned a new snapshot. It must
+	 * be called from the render thread.
+	 *
+	 * @return <code>true</code> if the snapshot wasn't acquired before.
+	 */
+	public boolean isFresh() {
+		return fresh;
+	}
+
+	/**
+	 * Returns the statistics of the exchange since the last call: the numbers
+	 * of the snapshots published by the simulation, of the frames shown, and
+	 * of the dropped and the duplicated frames. It must be called from the
+	 * render thread.
+	 *
+	 * @return The statistics.
+	 */
+	public String getStats() {
+		// The counters of the simulation are read from the front snapshot,
+		// which was published with them
+		Snapshot s = snapshots[front];
+		String stats = String.format("%d snapshots, %d new frames, %d "
+				+ "dropped, %d duplicated", s.published - lastPublished, shown
+				- lastShown, s.dropped - lastDropped, duplicated
+				- lastDuplicated);
+		lastPublished = s.published;
+		lastDropped = s.dropped;
+		lastShown = shown;
+		lastDuplicated = duplicated;
+		return stats;
+	}
+}
@@ -0,0 +1,250 @@
+/*
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ *  
+ *  (C) Copyright 2012 m4tx
+ *  http://www.m4tx.pl/
+ */
+
+package pl.m4tx.Carnobyl;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+
+/**
+ * Renderer composing the frames in a {@link Framebuffer}, with plain loops
+ * over the pixels, instead of the Java2D calls. The frame is then shown by a
+ * single <code>drawImage()</code> call.
+ * <p>
+ * The background and the map (the road tiles and the decals of the killed
+ * pedestrians, baked by the {@link MapCache}) are opaque, so they're copied
+ * row by row. The pedestrians, the car and the texts of the HUD are blended
+ * with their alpha. The speed doesn't depend on the Java2D pipeline of the
+ * JVM, only the final blit does.
+ * <p>
+ * The images are still generated and baked by Java2D, once. The car drawn
+ * from its shapes ({@link #vectorCar}) and the profiler overlay are drawn by
+ * Java2D on the framebuffer too. The rendering {@link #hints} and the
+ * lower resolution ({@link #scale}) aren't used.
+ */
+public class SoftwareRenderer extends Renderer {
+	/**
+	 * The frame being composed.
+	 */
+	protected final Framebuffer frame = new Framebuffer(Main.W, Main.H);
+	/**
+	 * Pixels of the background image.
+	 */
+	protected final int[] backPixels;
+
+	/**
+	 * Text of the killed pedestrians counter, and its pre-rendered image.
+	 */
+	protected String counter;
+	protected BufferedImage counterImage;
+	protected int[] counterPixels;
+	protected int counterAscent;
+	protected final Font counterFont = new Font(Font.DIALOG, Font.PLAIN, 12);
+
+	/**
+	 * Creates a new renderer.
+	 *
+	 * @param assets
+	 *            the generated images
+	 */
+	public SoftwareRenderer(Assets assets) {
+		super(assets);
+		backPixels = Framebuffer.getPixels(back);
+	}
+
+	@Override
+	protected MapCache createMapCache(Simulation sim) {
+		return new MapCache(sim, this, mapCacheBudget, true);
+	}
+
+	/**
+	 * Draws the whole frame from a snapshot of the simulation. The HUD phase
+	 * of the profiler includes showing the composed frame.
+	 *
+	 * @param g
+	 *            a {@link Graphics2D} object.
+	 * @param s
+	 *            the snapshot to draw
+	 * @param alpha
+	 *            moment to draw, from 0 (the previous tick) to 1 (the current
+	 *            one); it's ignored unless {@link #interpolate} is set
+	 */
+	@Override
+	public void render(Graphics2D g, Snapshot s, double alpha) {
+		if (!interpolate) {
+			alpha = 1;
+		}
+		int camX = getCamX(s.getCarX(alpha));
+		int camY = getCamY(s.getCarY(alpha));
+
+		profiler.begin(Profiler.MAP);
+		drawBackground(camX, camY);
+		getMapCache(s).draw(frame, -camX, -camY);
+		profiler.end(Profiler.MAP);
+		profiler.begin(Profiler.PEDESTRIANS);
+		drawPedestrians(s, camX, camY);
+		profiler.end(Profiler.PEDESTRIANS);
+
+		profiler.begin(Profiler.CAR);
+		drawCar(s.getRotation(alpha));
+		profiler.end(Profiler.CAR);
+		profiler.begin(Profiler.HUD);
+		drawHud(s);
+		g.drawImage(frame.image, 0, 0, null);
+		if (profiler.overlay) {
+			drawProfile(g);
+		}
+		profiler.end(Profiler.HUD);
+	}
+
+	/**
+	 * Copies the visible part of the background, see
+	 * {@link Renderer#drawBackground(Graphics2D, int, int)}.
+	 *
+	 * @param camX
+	 *            position of the camera on the X axis
+	 * @param camY
+	 *            position of the camera on the Y axis
+	 */
+	protected void drawBackground(int camX, int camY) {
+		int sx = 64 - (camX < 0 ? 64 : 0) - (camX % 64);
+		int sy = 64 - (camY < 0 ? 64 : 0) - (camY % 64);
+		frame.copy(backPixels, back.getWidth(), sx, sy, Main.W, Main.H, 0, 0);
+	}
+
+	/**
+	 * Draws the visible alive pedestrians.
+	 *
+	 * @param s
+	 *            snapshot of the simulation to draw
+	 * @param camX
+	 *            position of the camera on the X axis
+	 * @param camY
+	 *            position of the camera on the Y axis
+	 */
+	protected void drawPedestrians(Snapshot s, int camX, int camY) {
+		int x0 = -camX - 64, y0 = -camY - 64;
+		int x1 = -camX + Main.W + 32, y1 = -camY + Main.H + 32;
+
+		int sprites = atlas.region(Main.IMG_PEDESTRIAN, 0);
+		for (int i = 0; i < s.pedestrianCount; i++) {
+			int x = s.pedX[i], y = s.pedY[i];
+			if (x > x0 && x < x1 && y > y0 && y < y1) {
+				atlas.draw(frame, sprites + s.pedSprite[i], x - Main.TILE / 2
+						+ camX, y - Main.TILE / 2 + camY);
+			}
+		}
+	}
+
+	/**
+	 * Draws the car in the middle of the screen.
+	 *
+	 * @param rotation
+	 *            rotation of the car, in half-turns
+	 */
+	protected void drawCar(double rotation) {
+		if (!vectorCar) {
+			if (carSprites == null) {
+				carSprites = new CarSprites(car, carHeadings);
+			}
+			carSprites.draw(frame, carPosX + 32, carPosY + 64, rotation);
+			return;
+		}
+
+		Graphics2D g = frame.image.createGraphics();
+		g.setRenderingHints(rh);
+		drawCar(g, rotation);
+		g.dispose();
+	}
+
+	/**
+	 * Draws the HUD, see {@link Renderer#drawHud(Graphics2D, Snapshot)}.
+	 *
+	 * @param s
+	 *            snapshot of the simulation to draw
+	 */
+	protected void drawHud(Snapshot s) {
+		drawCounter(s.total > 0 ? s.killed + " / " + s.total : Integer
+				.toString(s.killed));
+
+		TextCache.Text timer = timerText.get(Integer.toString(Math.max(
+				(int) s.time, 0)));
+		timer.draw(frame, Main.W / 2 - (timer.bounds.width / 2),
+				timer.bounds.height);
+
+		if (s.isGameOver()) {
+			double gameOverTime = s.gameOverTime;
+			if (gameOverTime < 4000) {
+				frame.darken(gameOverTime / 4000);
+			} else {
+				frame.fill(0);
+
+				TextCache.Text title = titleText.get(getGameOverTitle(s
+						.endReason));
+				int height = title.bounds.height;
+				title.draw(frame, Main.W / 2 - (title.bounds.width / 2),
+						Main.H / 2 + (height / 2));
+
+				TextCache.Text desc = descText.get(getGameOverDesc(s
+						.endReason));
+				desc.draw(frame, Main.W / 2 - (desc.bounds.width / 2), Main.H
+						/ 2 + (desc.bounds.height / 2) + height);
+
+				if (gameOverTime < 6000) {
+					frame.darken(1 - (gameOverTime - 4000) / 2000);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Draws the killed pedestrians counter in the top-left corner. The text
+	 * is drawn into an image by Java2D only when it changes.
+	 *
+	 * @param text
+	 *            the counter
+	 */
+	protected void drawCounter(String text) {
+		if (!text.equals(counter)) {
+			BufferedImage tmp = new BufferedImage(1, 1,
+					BufferedImage.TYPE_INT_ARGB);
+			Graphics2D tmpG = tmp.createGraphics();
+			tmpG.setRenderingHints(rh);
+			FontMetrics fm = tmpG.getFontMetrics(counterFont);
+			tmpG.dispose();
+
+			counterAscent = fm.getAscent();
+			counterImage = new BufferedImage(fm.stringWidth(text) + 1,
+					fm.getHeight(), BufferedImage.TYPE_INT_ARGB);
+			Graphics2D g = counterImage.createGraphics();
+			g.setRenderingHints(rh);
+			g.setFont(counterFont);
+			g.setColor(Color.WHITE);
+			g.drawString(text, 0, counterAscent);
+			g.dispose();
+			counterPixels = Framebuffer.getPixels(counterImage);
+			counter = text;
+		}
+		frame.blend(counterPixels, counterImage.getWidth(), 0, 0, counterImage
+				.getWidth(), counterImage.getHeight(), 0, 10 - counterAscent);
+	}
+}
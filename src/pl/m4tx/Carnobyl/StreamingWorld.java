@@ -0,0 +1,463 @@
+/*
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ *  
+ *  (C) Copyright 2012 m4tx
+ *  http://www.m4tx.pl/
+ */
+
+package pl.m4tx.Carnobyl;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Map and pedestrians of the streaming mode, generated piece by piece
+ * instead of all at once.
+ * <p>
+ * The world is divided into chunks of {@link MapCache#CHUNK} x
+ * {@link MapCache#CHUNK} pixels, the same as the chunks of the
+ * {@link MapCache}. A chunk is generated when it's needed for the first time
+ * (when the car or the camera gets near it), and the least recently used
+ * chunks are evicted when there are more than {@link #MAX_CHUNKS} of them.
+ * The map cells are a function of their coordinates only, and the
+ * pedestrians of a chunk depend only on the seed and the position of the
+ * chunk, so an evicted chunk is generated again exactly the same.
+ * <p>
+ * The only thing that can't be generated again are the kills. They are kept
+ * for the whole game: the indices of the killed pedestrians of every chunk,
+ * applied whenever the chunk is generated, and copies of the killed
+ * pedestrians in {@link #killed}, drawn as decals by the {@link MapCache}.
+ * So the memory used by the world depends on the number of the kills, but
+ * not on how far the car drives.
+ * <p>
+ * If the size of the world is given, the world has the same map as the
+ * {@link Simulation} of that size, with {@link Main#IMG_LEVEL_END} around
+ * it, and the pedestrians are placed in the same area. Otherwise the
+ * {@link Simulation#tile} pattern continues in every direction, without any
+ * border, and every chunk has its pedestrians.
+ */
+public class StreamingWorld {
+	/**
+	 * Default number of the pedestrians in a chunk, about 20 per block.
+	 */
+	public final static int DEFAULT_PEDESTRIANS = 140;
+	/**
+	 * Max number of the chunks kept at the same time.
+	 */
+	public final static int MAX_CHUNKS = 64;
+
+	/**
+	 * Chunk of the world: its pedestrians and their index.
+	 */
+	public static class Chunk {
+		/**
+		 * Column and row of the chunk.
+		 */
+		protected final int cx, cy;
+		protected final Pedestrians pedestrians;
+		protected final PedestrianGrid grid;
+
+		/**
+		 * Creates a new chunk and indexes its pedestrians.
+		 *
+		 * @param cx
+		 *            column of the chunk
+		 * @param cy
+		 *            row of the chunk
+		 * @param pedestrians
+		 *            the pedestrians of the chunk
+		 */
+		protected Chunk(int cx, int cy, Pedestrians pedestrians) {
+			this.cx = cx;
+			this.cy = cy;
+			this.pedestrians = pedestrians;
+			grid = new PedestrianGrid(Main.ROAD, cx * MapCache.CHUNK, cy
+					* MapCache.CHUNK, MapCache.CELLS, MapCache.CELLS);
+			grid.build(pedestrians);
+		}
+	}
+
+	/**
+	 * Killed pedestrians of a chunk.
+	 */
+	protected static class ChunkKills {
+		/**
+		 * Pairs of the index of the pedestrian and its blood image, in the
+		 * order of killing. The array is reallocated twice as big when it
+		 * gets full.
+		 */
+		protected int[] kills = new int[8];
+		/**
+		 * Number of the kills.
+		 */
+		protected int count = 0;
+
+		/**
+		 * Adds a kill.
+		 *
+		 * @param i
+		 *            index of the pedestrian in the chunk
+		 * @param blood
+		 *            index of the blood image
+		 */
+		protected void add(int i, int blood) {
+			if (count * 2 == kills.length) {
+				kills = Arrays.copyOf(kills, kills.length * 2);
+			}
+			kills[count * 2] = i;
+			kills[count * 2 + 1] = blood;
+			count++;
+		}
+	}
+
+	protected final long seed;
+	/**
+	 * Size of the world, in blocks, 0 if it's unbounded.
+	 */
+	protected final int size;
+	/**
+	 * Size of the world, in cells, 0 if it's unbounded.
+	 */
+	protected final int length;
+	/**
+	 * Number of the pedestrians in a whole chunk. Chunks lying partially
+	 * outside of the area with the pedestrians have proportionally less.
+	 */
+	protected final int pedestrianCount;
+	/**
+	 * Area with the pedestrians, the square <code>[from, to)</code>, if the
+	 * world is bounded.
+	 */
+	protected final int from, to;
+	/**
+	 * Number of all the pedestrians in the world, 0 if it's unbounded.
+	 */
+	protected final int total;
+
+	/**
+	 * Generated chunks, in the access order (the least recently used first).
+	 */
+	protected final LinkedHashMap<Long, Chunk> chunks = new LinkedHashMap<Long, Chunk>(
+			16, 0.75f, true);
+	/**
+	 * Killed pedestrians of every chunk.
+	 */
+	protected final HashMap<Long, ChunkKills> kills =
+			new HashMap<Long, ChunkKills>();
+	/**
+	 * Copies of all the killed pedestrians, in the order of killing.
+	 */
+	protected final Pedestrians killed = new Pedestrians(16);
+	/**
+	 * Number of the chunks generated so far, including the ones generated
+	 * again after being evicted.
+	 */
+	protected long generated = 0;
+
+	/**
+	 * Creates a new world. No chunk is generated until it's needed.
+	 *
+	 * @param seed
+	 *            seed of the world
+	 * @param size
+	 *            size of the world, in blocks, 0 if it's unbounded
+	 * @param pedestrianCount
+	 *            number of the pedestrians in a chunk
+	 */
+	public StreamingWorld(long seed, int size, int pedestrianCount) {
+		this.seed = seed;
+		this.size = size;
+		this.pedestrianCount = pedestrianCount;
+		length = (size > 0 ? size * 4 + 22 : 0);
+		from = 8 * Main.ROAD + 50;
+		to = from + size * Main.ROAD * 4 + 100;
+
+		long sum = 0;
+		if (size > 0) {
+			int c0 = from / MapCache.CHUNK, c1 = (to - 1) / MapCache.CHUNK;
+			for (int cx = c0; cx <= c1; cx++) {
+				for (int cy = c0; cy <= c1; cy++) {
+					sum += getPedestrianCount(cx, cy);
+				}
+			}
+		}
+		total = (int) Math.min(sum, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Returns the tile of given cell of the map.
+	 *
+	 * @param x
+	 *            column of the cell
+	 * @param y
+	 *            row of the cell
+	 * @return ID of the tile, or -1 if the cell is empty.
+	 */
+	public int getCell(int x, int y) {
+		if (length > 0) {
+			if (x < 0 || y < 0 || x >= length || y >= length) {
+				return -1;
+			}
+			return Simulation.getCell(x, y, length, size);
+		}
+		return Simulation.tile[Math.floorMod(x - 12, 3) + 1][Math.floorMod(
+				y - 12, 3) + 1];
+	}
+
+	/**
+	 * Returns the number of the pedestrians of a chunk. A chunk without any
+	 * walkable cell has none, so the {@link #total} is the number of the
+	 * pedestrians actually placed.
+	 *
+	 * @param cx
+	 *            column of the chunk
+	 * @param cy
+	 *            row of the chunk
+	 * @return Number of the pedestrians.
+	 */
+	protected int getPedestrianCount(int cx, int cy) {
+		if (length == 0) {
+			return pedestrianCount;
+		}
+		long w = Math.max(Math.min((cx + 1) * MapCache.CHUNK, to)
+				- Math.max(cx * MapCache.CHUNK, from), 0);
+		long h = Math.max(Math.min((cy + 1) * MapCache.CHUNK, to)
+				- Math.max(cy * MapCache.CHUNK, from), 0);
+		int count = (int) (pedestrianCount * w * h / (MapCache.CHUNK
+				* MapCache.CHUNK));
+		if (count > 0 && findWalkable(cx, cy, null) == 0) {
+			return 0;
+		}
+		return count;
+	}
+
+	/**
+	 * Returns the part of a chunk the pedestrians are placed in: the whole
+	 * chunk, or its part inside of the bounds of a bounded world.
+	 *
+	 * @param cx
+	 *            column of the chunk
+	 * @param cy
+	 *            row of the chunk
+	 * @return The left, top, right and bottom edge.
+	 */
+	protected int[] getArea(int cx, int cy) {
+		int x0 = cx * MapCache.CHUNK, x1 = x0 + MapCache.CHUNK;
+		int y0 = cy * MapCache.CHUNK, y1 = y0 + MapCache.CHUNK;
+		if (length > 0) {
+			x0 = Math.max(x0, from);
+			y0 = Math.max(y0, from);
+			x1 = Math.min(x1, to);
+			y1 = Math.min(y1, to);
+		}
+		return new int[] { x0, y0, x1, y1 };
+	}
+
+	/**
+	 * Finds the walkable cells of the part of a chunk given by
+	 * {@link #getArea(int, int)}.
+	 *
+	 * @param cx
+	 *            column of the chunk
+	 * @param cy
+	 *            row of the chunk
+	 * @param walkable
+	 *            array for the column and the row of every walkable cell, or
+	 *            <code>null</code> to only check if there's any
+	 * @return Number of the walkable cells found; at most 1 if
+	 *         <code>walkable</code> is <code>null</code>.
+	 */
+	protected int findWalkable(int cx, int cy, int[] walkable) {
+		int[] area = getArea(cx, cy);
+		int count = 0;
+		int c0 = Math.floorDiv(area[0], Main.ROAD);
+		int r0 = Math.floorDiv(area[1], Main.ROAD);
+		for (int x = c0; x <= Math.floorDiv(area[2] - 1, Main.ROAD); x++) {
+			for (int y = r0; y <= Math.floorDiv(area[3] - 1, Main.ROAD); y++) {
+				if (getCell(x, y) != Main.IMG_BUILDING) {
+					if (walkable == null) {
+						return 1;
+					}
+					walkable[count * 2] = x;
+					walkable[count * 2 + 1] = y;
+					count++;
+				}
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Returns the chunk, generating it if it's not kept.
+	 *
+	 * @param cx
+	 *            column of the chunk
+	 * @param cy
+	 *            row of the chunk
+	 * @return The chunk.
+	 */
+	public Chunk getChunk(int cx, int cy) {
+		Long key = MapCache.key(cx, cy);
+		Chunk chunk = chunks.get(key);
+		if (chunk == null) {
+			Iterator<Map.Entry<Long, Chunk>> it = chunks.entrySet().iterator();
+			while (it.hasNext() && chunks.size() >= MAX_CHUNKS) {
+				it.next();
+				it.remove();
+			}
+			chunk = generate(cx, cy);
+			chunks.put(key, chunk);
+		}
+		return chunk;
+	}
+
+	/**
+	 * Finds the chunks covering given rectangle, generating the missing ones.
+	 * Chunks outside of a bounded world are skipped, as they don't have any
+	 * pedestrians.
+	 *
+	 * @param x0
+	 *            left edge of the rectangle
+	 * @param y0
+	 *            top edge of the rectangle
+	 * @param x1
+	 *            right edge of the rectangle
+	 * @param y1
+	 *            bottom edge of the rectangle
+	 * @param result
+	 *            list for the chunks; it's cleared first
+	 */
+	public void getChunks(int x0, int y0, int x1, int y1, List<Chunk> result) {
+		result.clear();
+		int cx0 = Math.floorDiv(x0, MapCache.CHUNK);
+		int cy0 = Math.floorDiv(y0, MapCache.CHUNK);
+		int cx1 = Math.floorDiv(x1, MapCache.CHUNK);
+		int cy1 = Math.floorDiv(y1, MapCache.CHUNK);
+		if (length > 0) {
+			int last = (length * Main.ROAD - 1) / MapCache.CHUNK;
+			cx0 = Math.max(cx0, 0);
+			cy0 = Math.max(cy0, 0);
+			cx1 = Math.min(cx1, last);
+			cy1 = Math.min(cy1, last);
+		}
+		for (int cx = cx0; cx <= cx1; cx++) {
+			for (int cy = cy0; cy <= cy1; cy++) {
+				result.add(getChunk(cx, cy));
+			}
+		}
+	}
+
+	/**
+	 * Generates the chunk: places its pedestrians in its walkable cells, the
+	 * same way as {@link Simulation#generate(int, int)}, and kills the ones
+	 * killed before.
+	 *
+	 * @param cx
+	 *            column of the chunk
+	 * @param cy
+	 *            row of the chunk
+	 * @return The chunk.
+	 */
+	protected Chunk generate(int cx, int cy) {
+		generated++;
+		int count = getPedestrianCount(cx, cy);
+		Pedestrians peds = new Pedestrians(count);
+
+		// Part of the chunk with the pedestrians
+		int[] area = getArea(cx, cy);
+		int x0 = area[0], y0 = area[1], x1 = area[2], y1 = area[3];
+
+		int[] walkable = new int[MapCache.CELLS * MapCache.CELLS * 2];
+		int walkableCount = 0;
+		if (count > 0) {
+			walkableCount = findWalkable(cx, cy, walkable);
+		}
+		if (walkableCount > 0) {
+			Random random = new Random(Simulation.mix(seed + cx
+					* 0x9e3779b97f4a7c15L + cy * 0xc2b2ae3d27d4eb4fL));
+			for (int i = 0; i < count; i++) {
+				int x, y;
+				do {
+					int cell = random.nextInt(walkableCount) * 2;
+					x = walkable[cell] * Main.ROAD + random.nextInt(Main.ROAD);
+					y = walkable[cell + 1] * Main.ROAD
+							+ random.nextInt(Main.ROAD);
+				} while (x < x0 || x >= x1 || y < y0 || y >= y1);
+				peds.add(x, y, random.nextInt(Simulation.VARIANTS));
+			}
+		}
+
+		ChunkKills chunkKills = kills.get(MapCache.key(cx, cy));
+		if (chunkKills != null) {
+			for (int k = 0; k < chunkKills.count * 2; k += 2) {
+				peds.kill(chunkKills.kills[k], chunkKills.kills[k + 1]);
+			}
+		}
+		return new Chunk(cx, cy, peds);
+	}
+
+	/**
+	 * Kills a pedestrian of a chunk, and remembers it for the rest of the
+	 * game.
+	 *
+	 * @param chunk
+	 *            the chunk
+	 * @param i
+	 *            index of the pedestrian in the chunk
+	 * @param blood
+	 *            index of the blood image
+	 */
+	public void kill(Chunk chunk, int i, int blood) {
+		Pedestrians peds = chunk.pedestrians;
+		peds.kill(i, blood);
+
+		Long key = MapCache.key(chunk.cx, chunk.cy);
+		ChunkKills chunkKills = kills.get(key);
+		if (chunkKills == null) {
+			chunkKills = new ChunkKills();
+			kills.put(key, chunkKills);
+		}
+		chunkKills.add(i, blood);
+
+		killed.kill(killed.add(peds.x[i], peds.y[i], peds.sprite[i]), blood);
+	}
+
+	/**
+	 * Returns the approximate amount of memory used by the kept chunks and
+	 * the kills.
+	 *
+	 * @return Number of bytes.
+	 */
+	public long getMemoryBytes() {
+		long bytes = 0;
+		for (Chunk chunk : chunks.values()) {
+			bytes += chunk.pedestrians.getMemoryBytes();
+			bytes += Simulation.getBytes(chunk.grid.cellStart.length, 4)
+					+ Simulation.getBytes(chunk.grid.cellFill.length, 4)
+					+ Simulation.getBytes(chunk.grid.items.length, 4)
+					+ Simulation.getBytes(chunk.grid.cellOf.length, 4);
+		}
+		for (ChunkKills chunkKills : kills.values()) {
+			bytes += Simulation.getBytes(chunkKills.kills.length, 4);
+		}
+		bytes += killed.getMemoryBytes();
+		return bytes;
+	}
+}
@@ -0,0 +1,209 @@
+/*
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ *  
+ *  (C) Copyright 2012 m4tx
+ *  http://www.m4tx.pl/
+ */
+
+package pl.m4tx.Carnobyl;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.Image;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.Shape;
+import java.awt.Transparency;
+import java.awt.font.TextLayout;
+import java.awt.image.BufferedImage;
+import java.util.HashMap;
+
+/**
+ * Cache of the outlined texts shown on the HUD.
+ * <p>
+ * Every text is drawn once, with its outline and fill, into its own image,
+ * so drawing it in a frame is only a single <code>drawImage()</code> call.
+ * All the texts of the cache have the same style.
+ */
+public class TextCache {
+	/**
+	 * Maximum number of the cached texts. When the cache gets full, it's
+	 * cleared.
+	 */
+	protected final static int MAX_TEXTS = 256;
+	/**
+	 * Stroke of the outline of the texts.
+	 */
+	protected final static BasicStroke STROKE = new BasicStroke(5);
+
+	/**
+	 * A text, drawn into an image.
+	 */
+	public static class Text {
+		/**
+		 * The image.
+		 */
+		protected final BufferedImage image;
+		/**
+		 * Position of the image, relative to the origin of the text.
+		 */
+		protected final int x, y;
+		/**
+		 * Bounds of the outline of the text (without the stroke).
+		 */
+		protected final Rectangle bounds;
+		/**
+		 * Pixels of the image, read when it's drawn into a
+		 * {@link Framebuffer} for the first time.
+		 */
+		protected int[] pixels;
+
+		protected Text(BufferedImage image, int x, int y, Rectangle bounds) {
+			this.image = image;
+			this.x = x;
+			this.y = y;
+			this.bounds = bounds;
+		}
+
+		/**
+		 * Draws the text.
+		 *
+		 * @param g
+		 *            a {@link Graphics2D} object.
+		 * @param originX
+		 *            position of the origin of the text on the X axis
+		 * @param originY
+		 *            position of the origin (the baseline) of the text on the
+		 *            Y axis
+		 */
+		public void draw(Graphics2D g, int originX, int originY) {
+			g.drawImage(image, originX + x, originY + y, null);
+		}
+
+		/**
+		 * Draws the text into a framebuffer.
+		 *
+		 * @param fb
+		 *            the framebuffer
+		 * @param originX
+		 *            position of the origin of the text on the X axis
+		 * @param originY
+		 *            position of the origin (the baseline) of the text on the
+		 *            Y axis
+		 */
+		public void draw(Framebuffer fb, int originX, int originY) {
+			if (pixels == null) {
+				pixels = Framebuffer.getPixels(image);
+			}
+			fb.blend(pixels, image.getWidth(), 0, 0, image.getWidth(), image
+					.getHeight(), originX + x, originY + y);
+		}
+	}
+
+	protected final Font font;
+	protected final Color outline;
+	/**
+	 * Image the texts are filled with, or <code>null</code> if they're filled
+	 * with {@link #fillColor}.
+	 */
+	protected final Image fillImage;
+	protected final Color fillColor;
+	protected final RenderingHints hints;
+
+	protected final HashMap<String, Text> texts = new HashMap<String, Text>();
+
+	/**
+	 * Creates a new, empty cache.
+	 *
+	 * @param font
+	 *            font of the texts
+	 * @param outline
+	 *            color of the outline of the texts
+	 * @param fillImage
+	 *            image the texts are filled with, its top-left corner at the
+	 *            top-left corner of the text, or <code>null</code>
+	 * @param fillColor
+	 *            color the texts are filled with, if there's no fill image
+	 * @param hints
+	 *            rendering hints used to draw the texts
+	 */
+	public TextCache(Font font, Color outline, Image fillImage,
+			Color fillColor, RenderingHints hints) {
+		this.font = font;
+		this.outline = outline;
+		this.fillImage = fillImage;
+		this.fillColor = fillColor;
+		this.hints = hints;
+	}
+
+	/**
+	 * Returns the text, drawing it if it's not cached.
+	 *
+	 * @param s
+	 *            the text
+	 * @return The drawn text.
+	 */
+	public Text get(String s) {
+		Text text = texts.get(s);
+		if (text == null) {
+			if (texts.size() >= MAX_TEXTS) {
+				texts.clear();
+			}
+			text = render(s);
+			texts.put(s, text);
+		}
+		return text;
+	}
+
+	/**
+	 * Draws the text into a new image.
+	 *
+	 * @param s
+	 *            the text
+	 * @return The drawn text.
+	 */
+	protected Text render(String s) {
+		// Only for the font render context
+		BufferedImage tmp = new BufferedImage(1, 1,
+				BufferedImage.TYPE_INT_ARGB);
+		Graphics2D tmpG = tmp.createGraphics();
+		tmpG.setRenderingHints(hints);
+		Shape shape = new TextLayout(s, font, tmpG.getFontRenderContext())
+				.getOutline(null);
+		tmpG.dispose();
+
+		Rectangle r = shape.getBounds();
+		int pad = (int) Math.ceil(STROKE.getLineWidth() / 2) + 1;
+		BufferedImage img = Generator.getCmptblImg(r.width + pad * 2,
+				r.height + pad * 2, Transparency.TRANSLUCENT);
+		Graphics2D g = img.createGraphics();
+		g.setRenderingHints(hints);
+		g.translate(pad - r.x, pad - r.y);
+		g.setStroke(STROKE);
+		g.setColor(outline);
+		g.draw(shape);
+		if (fillImage != null) {
+			g.setClip(shape);
+			g.drawImage(fillImage, r.x, r.y, null);
+		} else {
+			g.setColor(fillColor);
+			g.fill(shape);
+		}
+		g.dispose();
+		return new Text(img, r.x - pad, r.y - pad, r);
+	}
+}
@@ -0,0 +1,131 @@
+/*
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ *  
+ *  (C) Copyright 2012 m4tx
+ *  http://www.m4tx.pl/
+ */
+
+package pl.m4tx.Carnobyl;
+
+import java.awt.Image;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+/**
+ * Helpers of the texture synthesis, working on packed ARGB pixels.
+ * <p>
+ * Textures are generated into plain <code>int[]</code> arrays, row by row
+ * (pixel <code>(x, y)</code> is at <code>y * width + x</code>), without
+ * allocating any objects per pixel, and then copied into the image at once
+ * by {@link #write(BufferedImage, int[])}.
+ */
+public class Texture {
+	/**
+	 * Randomizes a pixel, exactly like
+	 * {@link Generator#rndPxl(int, int, int, int, int, int, int, int)} does
+	 * (consuming the same random numbers), but returns it as a packed ARGB
+	 * integer, instead of allocating a {@link java.awt.Color}.
+	 *
+	 * @param random
+	 *            random number generator
+	 * @param A1
+	 *            the starting value of the Alpha
+	 * @param A2
+	 *            the random range of the Alpha
+	 * @param R1
+	 *            the starting value of the Red
+	 * @param R2
+	 *            the random range of the Red
+	 * @param G1
+	 *            the starting value of the Green
+	 * @param G2
+	 *            the random range of the Green
+	 * @param B1
+	 *            the starting value of the Blue
+	 * @param B2
+	 *            the random range of the Blue
+	 * @return The pixel, as <code>0xAARRGGBB</code>.
+	 */
+	public static int rndArgb(Random random, int A1, int A2, int R1, int R2,
+			int G1, int G2, int B1, int B2) {
+		int r = (R2 == R1 ? 0 : R1 + random.nextInt(R2));
+		int g = (G2 == 0 ? G1 : G1 + random.nextInt(G2));
+		int b = (B2 == 0 ? B1 : B1 + random.nextInt(B2));
+		int a = (A2 == 0 ? A1 : A1 + random.nextInt(A2));
+		return (a & 0xff) << 24 | (r & 0xff) << 16 | (g & 0xff) << 8
+				| (b & 0xff);
+	}
+
+	/**
+	 * Copies the pixels into the image.
+	 * <p>
+	 * If the image stores its pixels as packed integers (which is the case
+	 * for the images created by {@link Generator#getCmptblImg(int, int, int)}
+	 * on all the common displays), the pixels are copied straight into its
+	 * raster. The raster isn't taken over, so the image can still be
+	 * accelerated.
+	 *
+	 * @param img
+	 *            the image
+	 * @param pixels
+	 *            the pixels, row by row, as <code>0xAARRGGBB</code>
+	 */
+	public static void write(BufferedImage img, int[] pixels) {
+		int w = img.getWidth(), h = img.getHeight();
+		if (img.getType() == BufferedImage.TYPE_INT_ARGB
+				|| img.getType() == BufferedImage.TYPE_INT_RGB) {
+			img.getRaster().setDataElements(0, 0, w, h, pixels);
+		} else {
+			img.setRGB(0, 0, w, h, pixels, 0, w);
+		}
+	}
+
+	/**
+	 * Returns the pixels of a square image, rotated clockwise by given number
+	 * of quarter turns. The rotation is exact - no pixel is interpolated.
+	 *
+	 * @param image
+	 *            the image, a {@link BufferedImage}
+	 * @param quarterTurns
+	 *            number of quarter turns, from 0 to 3
+	 * @return The pixels, row by row, as <code>0xAARRGGBB</code>.
+	 */
+	public static int[] rotate(Image image, int quarterTurns) {
+		BufferedImage img = (BufferedImage) image;
+		int size = img.getWidth();
+		int[] src = img.getRGB(0, 0, size, size, null, 0, size);
+		if (quarterTurns == 0) {
+			return src;
+		}
+		int[] dst = new int[src.length];
+		int last = size - 1;
+		for (int y = 0, i = 0; y < size; y++) {
+			for (int x = 0; x < size; x++, i++) {
+				switch (quarterTurns) {
+				case 1:
+					dst[x * size + last - y] = src[i];
+					break;
+				case 2:
+					dst[(last - y) * size + last - x] = src[i];
+					break;
+				default:
+					dst[(last - x) * size + y] = src[i];
+					break;
+				}
+			}
+		}
+		return dst;
+	}
+}
@@ -0,0 +1,59 @@
+/*
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ *  
+ *  (C) Copyright 2012 m4tx
+ *  http://www.m4tx.pl/
+ */
+
+package pl.m4tx.Carnobyl;
+
+import java.awt.Graphics2D;
+import java.awt.Toolkit;
+import java.awt.image.BufferStrategy;
+
+/**
+ * Render target drawing on a window, through its {@link BufferStrategy}.
+ */
+public class WindowTarget implements RenderTarget {
+	protected final BufferStrategy bf;
+
+	/**
+	 * Creates a new target.
+	 *
+	 * @param bf
+	 *            buffer strategy of the window
+	 */
+	public WindowTarget(BufferStrategy bf) {
+		this.bf = bf;
+	}
+
+	@Override
+	public Graphics2D getGraphics() {
+		return (Graphics2D) bf.getDrawGraphics();
+	}
+
+	@Override
+	public void show() {
+		// Shows the contents of the backbuffer on the screen.
+		bf.show();
+	}
+
+	@Override
+	public void sync() {
+		// Tell the System to do the drawing now, otherwise it can take a few
+		// extra ms until drawing is done
+		Toolkit.getDefaultToolkit().sync();
+	}
+}